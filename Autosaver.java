@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Saves the game on its own every so often (in game time) and right after a level up or a
+ * boss defeat. The game thread calls afterTick() at the end of every tick; when a save is
+ * due it copies the world's save data there and then, between two ticks, which only copies
+ * a few short lists. Encoding and writing the file happen on a background thread, so the
+ * game never waits for the disk.
+ *
+ * Each save is written in full to a temporary file and renamed over the last one (see
+ * SaveCodec.write), so quitting or crashing in the middle of an autosave leaves the
+ * previous one as it was. If a save is still being written when the next one comes due,
+ * the new one waits for a later tick rather than queueing up behind it. The temporary files
+ * of saves cut short that way are cleared away before the next run's first autosave.
+ *
+ * Nothing is saved until a game has been started or loaded, and a game is not saved the
+ * moment it starts. Only the game thread calls afterTick().
+ */
+class Autosaver {
+    static final Path DEFAULT_FILE = Paths.get("saves", "autosave");
+    private static final int DEFAULT_INTERVAL_SECONDS = 60;
+
+    private final Path file;
+    private final long intervalMillis; // 0 for no timed saves
+    private final boolean onMilestones;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Autosave");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private boolean leftoversDeleted; // Writer thread only
+
+    // Game thread only
+    private int games;
+    private int milestones;
+    private long lastSaveTime;
+    private boolean due;
+
+    Autosaver(Path file, long intervalMillis, boolean onMilestones) {
+        this.file = file;
+        this.intervalMillis = intervalMillis;
+        this.onMilestones = onMilestones;
+    }
+
+    /**
+     * Reads the settings: -Ddonkey.autosaveSeconds (game seconds between saves, 60 by default,
+     * 0 for none) and -Ddonkey.autosaveOnMilestones (true by default). Returns null when
+     * both are off.
+     */
+    static Autosaver fromSystemProperties() {
+        long intervalMillis = Math.max(0, Integer.getInteger("donkey.autosaveSeconds", DEFAULT_INTERVAL_SECONDS)) * 1000L;
+        boolean onMilestones = Boolean.parseBoolean(System.getProperty("donkey.autosaveOnMilestones", "true"));
+        if (intervalMillis == 0 && !onMilestones) {
+            return null;
+        }
+        return new Autosaver(DEFAULT_FILE, intervalMillis, onMilestones);
+    }
+
+    // Starts a save if one is due
+    public void afterTick(World world) {
+        if (world.games == 0) {
+            return; // Still on the title screen
+        }
+        if (world.games != games) {
+            // A new or loaded game: start counting from here
+            games = world.games;
+            milestones = world.milestones;
+            lastSaveTime = world.now();
+            due = false;
+            return;
+        }
+        if (onMilestones && world.milestones != milestones) {
+            milestones = world.milestones;
+            due = true;
+        }
+        if (intervalMillis > 0 && world.now() - lastSaveTime >= intervalMillis) {
+            due = true;
+        }
+        if (!due || !writing.compareAndSet(false, true)) {
+            return;
+        }
+        due = false;
+        lastSaveTime = world.now();
+        GameStateData data = world.toSaveData();
+        writer.execute(() -> {
+            try {
+                if (!leftoversDeleted) {
+                    leftoversDeleted = true;
+                    SaveCodec.deleteLeftovers(file);
+                }
+                data.writeTo(file);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Autosave to " + file + " failed: " + e);
+            } finally {
+                writing.set(false);
+            }
+        });
+    }
+}
@@ -0,0 +1,94 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * A part of the screen that only changes when a few numbers do (the HUD, the boss counter).
+ * It is painted into an image at device resolution and then drawn with one blit per frame;
+ * it is painted again only when one of its values, the scale or the screen changes.
+ *
+ * Each frame the caller sets the values the layer shows with value(), then calls draw.
+ */
+class CachedLayer {
+    // Paints the layer with (0, 0) at its top-left corner, in user-space units
+    public interface Painter {
+        void paint(Graphics2D g, WorldSnapshot world);
+    }
+
+    private static final AffineTransform DEVICE_SPACE = new AffineTransform();
+
+    private final int width, height;
+    private final Painter painter;
+    private final int[] values;
+    private final int[] paintedValues;
+    private BufferedImage image;
+    private double paintedScaleX, paintedScaleY;
+    private GraphicsConfiguration paintedConfig;
+
+    public CachedLayer(int width, int height, int valueCount, Painter painter) {
+        this.width = width;
+        this.height = height;
+        this.painter = painter;
+        this.values = new int[valueCount];
+        this.paintedValues = new int[valueCount];
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public void value(int index, int value) {
+        values[index] = value;
+    }
+
+    // Draws the layer with its top-left corner at (x, y) in the current user space
+    public void draw(Graphics2D g2d, int x, int y, WorldSnapshot world) {
+        AffineTransform transform = g2d.getTransform();
+        if (transform.getShearX() != 0 || transform.getShearY() != 0 || transform.getScaleX() <= 0 || transform.getScaleY() <= 0) {
+            // Not a plain scale, so there is no one image to keep: paint straight onto the target
+            g2d.translate(x, y);
+            painter.paint(g2d, world);
+            g2d.setTransform(transform);
+            return;
+        }
+        GraphicsConfiguration config = g2d.getDeviceConfiguration();
+        if (image == null || config != paintedConfig || transform.getScaleX() != paintedScaleX
+                || transform.getScaleY() != paintedScaleY || !Arrays.equals(values, paintedValues)) {
+            paint(config, transform.getScaleX(), transform.getScaleY(), world);
+        }
+        int left = (int) Math.round(x * transform.getScaleX() + transform.getTranslateX());
+        int top = (int) Math.round(y * transform.getScaleY() + transform.getTranslateY());
+        g2d.setTransform(DEVICE_SPACE);
+        g2d.drawImage(image, left, top, null);
+        g2d.setTransform(transform);
+    }
+
+    private void paint(GraphicsConfiguration config, double scaleX, double scaleY, WorldSnapshot world) {
+        int imageWidth = (int) Math.ceil(width * scaleX);
+        int imageHeight = (int) Math.ceil(height * scaleY);
+        if (image == null || config != paintedConfig || image.getWidth() != imageWidth || image.getHeight() != imageHeight) {
+            image = (config != null)
+                    ? config.createCompatibleImage(imageWidth, imageHeight, Transparency.TRANSLUCENT)
+                    : new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+        }
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, imageWidth, imageHeight);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.scale(scaleX, scaleY);
+            painter.paint(g, world);
+        } finally {
+            g.dispose();
+        }
+        System.arraycopy(values, 0, paintedValues, 0, values.length);
+        paintedScaleX = scaleX;
+        paintedScaleY = scaleY;
+        paintedConfig = config;
+    }
+}
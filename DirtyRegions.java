@@ -0,0 +1,216 @@
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Works out which parts of the screen changed between two frames, so only those have to be
+ * painted again. Each frame the renderer lists what it draws as items: a rectangle in
+ * component pixels and a stamp standing for anything else that shows (an animation frame,
+ * a level, a line of text). Items are listed in sections, one per kind of thing, in the
+ * same order every frame. An item whose rectangle or stamp differs from the one in the same
+ * place last frame marks both its old and its new rectangle dirty; so do items that came or
+ * went. When an entity is removed the ones after it shift up and get marked too, which
+ * paints a little more than needed but never less.
+ *
+ * Dirty rectangles are then merged down to at most MAX_RECTS, or the frame is flagged as a
+ * full repaint when merging would cover most of the screen anyway. Callers flag one
+ * themselves for changes that touch everything (camera moves, shake, resizes).
+ *
+ * Only used by the thread that paints, so it reuses its arrays rather than allocating.
+ */
+class DirtyRegions {
+    private static final int MAX_RECTS = 4;
+    private static final int MAX_RECTS_TO_MERGE = 32; // Past this many, they are just unioned
+    private static final int MAX_SECTIONS = 16;
+
+    // Items of the last frame and the one being listed: x, y, width, height per item, and a stamp
+    private int[] previousRects = new int[64], currentRects = new int[64];
+    private long[] previousStamps = new long[16], currentStamps = new long[16];
+    private final int[] previousSections = new int[MAX_SECTIONS], currentSections = new int[MAX_SECTIONS];
+    private int previousSectionCount = -1, currentSectionCount; // -1 until a frame has been listed
+    private int itemCount;
+
+    // Result of the last finish(): either a full repaint, or rectCount rectangles
+    private boolean full;
+    private final Rectangle[] rects = new Rectangle[MAX_RECTS_TO_MERGE + 1];
+    private int rectCount;
+
+    public DirtyRegions() {
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = new Rectangle();
+        }
+    }
+
+    // Starts listing a frame
+    public void begin() {
+        itemCount = 0;
+        currentSectionCount = 0;
+        full = false;
+        rectCount = 0;
+    }
+
+    // Adds one item, in component pixels
+    public void add(int x, int y, int width, int height, long stamp) {
+        if (currentRects.length < (itemCount + 1) * 4) {
+            currentRects = Arrays.copyOf(currentRects, currentRects.length * 2);
+            currentStamps = Arrays.copyOf(currentStamps, currentStamps.length * 2);
+        }
+        currentRects[itemCount * 4] = x;
+        currentRects[itemCount * 4 + 1] = y;
+        currentRects[itemCount * 4 + 2] = width;
+        currentRects[itemCount * 4 + 3] = height;
+        currentStamps[itemCount] = stamp;
+        itemCount++;
+    }
+
+    // Ends the current section; the items added since the last one belong to it
+    public void endSection() {
+        currentSections[currentSectionCount++] = itemCount;
+    }
+
+    // Marks the whole frame for painting (the items are still compared against next frame)
+    public void markFull() {
+        full = true;
+    }
+
+    /**
+     * Compares the frame just listed with the one before and works out what to paint.
+     * A frame covering screenWidth x screenHeight is repainted whole if that is nearly as
+     * cheap as painting the merged rectangles.
+     */
+    public void finish(int screenWidth, int screenHeight) {
+        if (previousSectionCount != currentSectionCount) {
+            full = true; // First frame, or the renderer changed what it lists
+        }
+        if (!full) {
+            compare();
+            if (rectCount > MAX_RECTS_TO_MERGE) {
+                unionAll();
+            }
+            merge();
+            long area = 0;
+            for (int i = 0; i < rectCount; i++) {
+                area += (long) rects[i].width * rects[i].height;
+            }
+            if (area * 2 > (long) screenWidth * screenHeight) {
+                full = true;
+            }
+        }
+        if (full) {
+            rectCount = 0;
+        }
+
+        // This frame becomes the one the next is compared with
+        int[] swapRects = previousRects;
+        previousRects = currentRects;
+        currentRects = swapRects;
+        long[] swapStamps = previousStamps;
+        previousStamps = currentStamps;
+        currentStamps = swapStamps;
+        System.arraycopy(currentSections, 0, previousSections, 0, currentSectionCount);
+        previousSectionCount = currentSectionCount;
+    }
+
+    // Forgets the last frame, so the next one is painted whole
+    public void reset() {
+        previousSectionCount = -1;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    // Number of rectangles to paint after finish() (0 if nothing changed, or if isFull)
+    public int rectCount() {
+        return rectCount;
+    }
+
+    public Rectangle rect(int i) {
+        return rects[i];
+    }
+
+    private void compare() {
+        int previousStart = 0, currentStart = 0;
+        for (int s = 0; s < currentSectionCount; s++) {
+            int previousEnd = previousSections[s], currentEnd = currentSections[s];
+            int length = Math.max(previousEnd - previousStart, currentEnd - currentStart);
+            for (int i = 0; i < length; i++) {
+                int p = previousStart + i, c = currentStart + i;
+                boolean inPrevious = p < previousEnd, inCurrent = c < currentEnd;
+                if (inPrevious && inCurrent && sameItem(p, c)) {
+                    continue;
+                }
+                if (inPrevious) {
+                    dirty(previousRects, p);
+                }
+                if (inCurrent) {
+                    dirty(currentRects, c);
+                }
+            }
+            previousStart = previousEnd;
+            currentStart = currentEnd;
+        }
+    }
+
+    private boolean sameItem(int p, int c) {
+        return previousStamps[p] == currentStamps[c]
+                && previousRects[p * 4] == currentRects[c * 4] && previousRects[p * 4 + 1] == currentRects[c * 4 + 1]
+                && previousRects[p * 4 + 2] == currentRects[c * 4 + 2] && previousRects[p * 4 + 3] == currentRects[c * 4 + 3];
+    }
+
+    private void dirty(int[] items, int i) {
+        int x = items[i * 4], y = items[i * 4 + 1], width = items[i * 4 + 2], height = items[i * 4 + 3];
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        for (int r = 0; r < rectCount; r++) {
+            if (rects[r].contains(x, y, width, height)) {
+                return; // An item that didn't move but changed its look marks the same place twice
+            }
+        }
+        if (rectCount == rects.length) {
+            unionAll();
+        }
+        rects[rectCount++].setBounds(x, y, width, height);
+    }
+
+    private void unionAll() {
+        for (int i = 1; i < rectCount; i++) {
+            rects[0].add(rects[i]);
+        }
+        rectCount = Math.min(rectCount, 1);
+    }
+
+    // Merges the pair that wastes the least area while there are too many rectangles or any
+    // pair can be merged without painting more than the two would on their own
+    private void merge() {
+        while (rectCount > 1) {
+            int bestA = -1, bestB = -1;
+            long bestCost = Long.MAX_VALUE;
+            for (int a = 0; a < rectCount; a++) {
+                for (int b = a + 1; b < rectCount; b++) {
+                    long cost = mergeCost(rects[a], rects[b]);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestA = a;
+                        bestB = b;
+                    }
+                }
+            }
+            if (bestCost > 0 && rectCount <= MAX_RECTS) {
+                return;
+            }
+            rects[bestA].add(rects[bestB]);
+            // Move the last rectangle into the hole, keeping its object for reuse
+            Rectangle removed = rects[bestB];
+            rects[bestB] = rects[--rectCount];
+            rects[rectCount] = removed;
+        }
+    }
+
+    // Area the union of a and b covers beyond a and b themselves
+    private static long mergeCost(Rectangle a, Rectangle b) {
+        int left = Math.min(a.x, b.x), top = Math.min(a.y, b.y);
+        int right = Math.max(a.x + a.width, b.x + b.width), bottom = Math.max(a.y + a.height, b.y + b.height);
+        return (long) (right - left) * (bottom - top) - (long) a.width * a.height - (long) b.width * b.height;
+    }
+}
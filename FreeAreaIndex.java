@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Every place a size x size block of tiles fits without touching an obstacle, among the
+ * grid pages that are loaded, kept up to date as obstacles and pages come and go. Places
+ * are named by their top-left tile, packed with TileMap.key.
+ *
+ * The free places sit in a dense array, with a reverse index kept per grid page so that
+ * memory follows the loaded pages rather than the size of the world. Adding, removing and
+ * picking one uniformly at random are all O(1). Picks take a filter for conditions that
+ * change too often to index (the hero, other pickups). A pick makes a bounded number of
+ * random tries and then falls back to counting the places that pass and taking one of
+ * them, so it always finishes and stays uniform, and it returns NONE only when no place
+ * passes the filter at all. The filter must give the same answer for a place throughout
+ * a pick.
+ */
+class FreeAreaIndex {
+    // Extra conditions on a place, checked when picking
+    public interface Filter {
+        boolean accept(int column, int row);
+    }
+
+    // Returned when there is no place to pick (no real tile packs to this key)
+    static final long NONE = Long.MIN_VALUE;
+
+    private static final int RANDOM_TRIES = 16;
+    private static final int PAGE_TILES = OccupancyGrid.PAGE_TILES;
+    private static final int PAGE_SHIFT = OccupancyGrid.PAGE_SHIFT;
+
+    private final int size;
+    private final int columns, rows; // World size in tiles; a block must fit inside it
+    private long[] members = new long[64]; // Free places, first count are valid
+    private int count;
+    // Per grid page, where each of its places sits in members (-1 if it isn't free)
+    private final TileMap<int[]> positions = new TileMap<>();
+
+    public FreeAreaIndex(int size, int columns, int rows, OccupancyGrid obstacles) {
+        this.size = size;
+        this.columns = columns;
+        this.rows = rows;
+        rebuild(obstacles);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    // Starts over from the obstacle grid (after it was cleared or replaced wholesale)
+    public void rebuild(OccupancyGrid obstacles) {
+        positions.clear();
+        count = 0;
+        // Pages go in a fixed order, so the same grid always gives the same picks from the same seed
+        long[] pageKeys = new long[obstacles.pageCount()];
+        int[] pageCount = {0};
+        obstacles.forEachPage((key, page) -> pageKeys[pageCount[0]++] = key);
+        Arrays.sort(pageKeys);
+        for (long key : pageKeys) {
+            pageLoaded(TileMap.column(key), TileMap.row(key), obstacles);
+        }
+    }
+
+    // A grid page was loaded: look again at every place whose block touches it
+    public void pageLoaded(int pageX, int pageY, OccupancyGrid obstacles) {
+        int firstColumn = pageX * PAGE_TILES - size + 1;
+        int firstRow = pageY * PAGE_TILES - size + 1;
+        for (int row = firstRow; row < (pageY + 1) * PAGE_TILES; row++) {
+            for (int column = firstColumn; column < (pageX + 1) * PAGE_TILES; column++) {
+                if (isFree(column, row, obstacles)) {
+                    add(column, row);
+                } else {
+                    remove(column, row);
+                }
+            }
+        }
+    }
+
+    // A grid page is about to be unloaded: every place whose block touches it goes
+    public void pageUnloaded(int pageX, int pageY) {
+        int firstColumn = pageX * PAGE_TILES - size + 1;
+        int firstRow = pageY * PAGE_TILES - size + 1;
+        for (int row = firstRow; row < (pageY + 1) * PAGE_TILES; row++) {
+            for (int column = firstColumn; column < (pageX + 1) * PAGE_TILES; column++) {
+                remove(column, row);
+            }
+        }
+        positions.remove(TileMap.key(pageX, pageY)); // All of its own places are gone now
+    }
+
+    // An obstacle appeared on (column, row): every place whose block covers it is gone
+    public void blocked(int column, int row) {
+        for (int r = row - size + 1; r <= row; r++) {
+            for (int c = column - size + 1; c <= column; c++) {
+                remove(c, r);
+            }
+        }
+    }
+
+    /**
+     * A uniformly random free place that passes the filter (null accepts all), or NONE.
+     */
+    public long pick(Random random, Filter filter) {
+        if (count == 0) {
+            return NONE;
+        }
+        for (int i = 0; i < RANDOM_TRIES; i++) {
+            long place = members[random.nextInt(count)];
+            if (filter == null || filter.accept(TileMap.column(place), TileMap.row(place))) {
+                return place;
+            }
+        }
+        // Most places are being filtered out: count the ones that pass, then take one of them
+        // at random, so the pick stays uniform
+        int accepted = 0;
+        for (int i = 0; i < count; i++) {
+            if (filter.accept(TileMap.column(members[i]), TileMap.row(members[i]))) {
+                accepted++;
+            }
+        }
+        if (accepted == 0) {
+            return NONE;
+        }
+        int chosen = random.nextInt(accepted);
+        for (int i = 0; ; i++) {
+            if (filter.accept(TileMap.column(members[i]), TileMap.row(members[i])) && chosen-- == 0) {
+                return members[i];
+            }
+        }
+    }
+
+    /**
+     * A uniformly random free place within radius tiles of (column, row) on both axes that
+     * passes the filter, or NONE. Visits each place in the window once.
+     */
+    public long pickNear(Random random, int column, int row, int radius, Filter filter) {
+        long chosen = NONE;
+        int seen = 0;
+        for (int r = row - radius; r <= row + radius; r++) {
+            for (int c = column - radius; c <= column + radius; c++) {
+                if (position(c, r) >= 0 && (filter == null || filter.accept(c, r))) {
+                    // Reservoir sampling: keep each candidate with chance 1 / candidates seen so far
+                    seen++;
+                    if (random.nextInt(seen) == 0) {
+                        chosen = TileMap.key(c, r);
+                    }
+                }
+            }
+        }
+        return chosen;
+    }
+
+    // The block at (column, row) is inside the world, on loaded pages and clear of obstacles
+    private boolean isFree(int column, int row, OccupancyGrid obstacles) {
+        if (column < 0 || row < 0 || column + size > columns || row + size > rows) {
+            return false;
+        }
+        // A block is never bigger than a page, so checking its corners' pages covers all of it
+        int lastColumn = column + size - 1, lastRow = row + size - 1;
+        if (!obstacles.hasPage(column >> PAGE_SHIFT, row >> PAGE_SHIFT) || !obstacles.hasPage(lastColumn >> PAGE_SHIFT, row >> PAGE_SHIFT)
+                || !obstacles.hasPage(column >> PAGE_SHIFT, lastRow >> PAGE_SHIFT) || !obstacles.hasPage(lastColumn >> PAGE_SHIFT, lastRow >> PAGE_SHIFT)) {
+            return false;
+        }
+        return obstacles.isAreaFree(column, row, size, size);
+    }
+
+    private int position(int column, int row) {
+        int[] page = positions.get(TileMap.key(column >> PAGE_SHIFT, row >> PAGE_SHIFT));
+        return (page == null) ? -1 : page[slot(column, row)];
+    }
+
+    private void add(int column, int row) {
+        long pageKey = TileMap.key(column >> PAGE_SHIFT, row >> PAGE_SHIFT);
+        int[] page = positions.get(pageKey);
+        if (page == null) {
+            page = new int[PAGE_TILES * PAGE_TILES];
+            Arrays.fill(page, -1);
+            positions.put(pageKey, page);
+        } else if (page[slot(column, row)] >= 0) {
+            return; // Already free
+        }
+        if (count == members.length) {
+            members = Arrays.copyOf(members, count * 2);
+        }
+        page[slot(column, row)] = count;
+        members[count++] = TileMap.key(column, row);
+    }
+
+    private void remove(int column, int row) {
+        int[] page = positions.get(TileMap.key(column >> PAGE_SHIFT, row >> PAGE_SHIFT));
+        if (page == null || page[slot(column, row)] < 0) {
+            return;
+        }
+        int position = page[slot(column, row)];
+        page[slot(column, row)] = -1;
+        // Move the last member into the hole
+        long last = members[--count];
+        if (position < count) {
+            members[position] = last;
+            int[] lastPage = positions.get(TileMap.key(TileMap.column(last) >> PAGE_SHIFT, TileMap.row(last) >> PAGE_SHIFT));
+            lastPage[slot(TileMap.column(last), TileMap.row(last))] = position;
+        }
+    }
+
+    private static int slot(int column, int row) {
+        return ((row & (PAGE_TILES - 1)) << PAGE_SHIFT) | (column & (PAGE_TILES - 1));
+    }
+}
@@ -0,0 +1,56 @@
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+
+/**
+ * Heavyweight drawing surface for active rendering.
+ * Instead of asking Swing to repaint, the game thread draws each frame straight into
+ * the back buffer of a BufferStrategy and flips it itself, so frames go out exactly when
+ * the game loop produces them. Turned on with -Ddonkey.activeRendering=true.
+ */
+class GameCanvas extends Canvas {
+    private static final long serialVersionUID = 1L;
+
+    // Draws one frame into a surface of the given size
+    public interface Painter {
+        void paintFrame(Graphics2D g2d, int width, int height);
+    }
+
+    private final Painter painter;
+
+    public GameCanvas(Painter painter) {
+        this.painter = painter;
+        setIgnoreRepaint(true); // We present frames ourselves, ignore OS paint requests
+        setFocusable(true);
+        setBackground(Color.BLACK);
+    }
+
+    // Draws and presents one frame. Called from the game thread.
+    public void renderFrame() {
+        if (!isDisplayable() || !isShowing() || getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+        BufferStrategy strategy = getBufferStrategy();
+        if (strategy == null) {
+            createBufferStrategy(2);
+            strategy = getBufferStrategy();
+        }
+
+        // The back buffer can be lost or restored at any point, so redraw until a frame gets through
+        do {
+            do {
+                Graphics2D g2d = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    g2d.setColor(getBackground());
+                    g2d.fillRect(0, 0, getWidth(), getHeight());
+                    painter.paintFrame(g2d, getWidth(), getHeight());
+                } finally {
+                    g2d.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+
+        // Push the frame out now instead of waiting for the window system to batch it
+        Toolkit.getDefaultToolkit().sync();
+    }
+}
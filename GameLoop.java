@@ -0,0 +1,131 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-timestep loop that drives the game thread.
+ * The simulation always advances in whole ticks of the same length, while frames are
+ * rendered at the display rate with an interpolation factor for the time between ticks.
+ * Between frames the thread parks instead of spinning on System.nanoTime().
+ *
+ * With an idle frame rate set, the loop drops to it while the listener reports nothing
+ * changing on screen, running the ticks that piled up in one go when it wakes, so the
+ * simulation keeps the same pace. wake() brings it straight back to the full rate.
+ */
+class GameLoop implements Runnable {
+
+    // The two things the loop drives
+    public interface Listener {
+        void tick();
+        void render(double alpha); // alpha is how far we are between the last tick and the next (0..1)
+        boolean isIdle(); // Asked after each frame: true if the next one may come at the idle rate
+    }
+
+    // Never simulate more than this many ticks before drawing a frame (prevents a spiral of death)
+    private static final int MAX_CATCH_UP_TICKS = 5;
+    // Spin (with onSpinWait) for the last part of a wait, because parkNanos tends to oversleep
+    private static final long SPIN_THRESHOLD_NANOS = 200_000L;
+
+    private final Listener listener;
+    private final long tickNanos;
+    private final long frameNanos;
+    private final long idleFrameNanos; // Same as frameNanos when there is no idle rate
+    private final int maxCatchUpTicks; // Enough for a whole idle frame, plus room for a stall
+    private volatile boolean running = false;
+    private final AtomicBoolean woken = new AtomicBoolean(); // Set by wake(), taken by the loop once per frame
+    private volatile Thread thread;
+
+    public GameLoop(Listener listener, int ticksPerSecond, int framesPerSecond) {
+        this(listener, ticksPerSecond, framesPerSecond, 0);
+    }
+
+    // idleFramesPerSecond of 0 (or anything not below framesPerSecond) keeps the full rate throughout
+    public GameLoop(Listener listener, int ticksPerSecond, int framesPerSecond, int idleFramesPerSecond) {
+        this.listener = listener;
+        this.tickNanos = 1_000_000_000L / ticksPerSecond;
+        this.frameNanos = 1_000_000_000L / framesPerSecond;
+        this.idleFrameNanos = (idleFramesPerSecond > 0 && idleFramesPerSecond < framesPerSecond)
+                ? 1_000_000_000L / idleFramesPerSecond : frameNanos;
+        this.maxCatchUpTicks = (int) ((idleFrameNanos + tickNanos - 1) / tickNanos) + MAX_CATCH_UP_TICKS;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Starts the loop on its own thread
+    public Thread start(String threadName) {
+        running = true;
+        Thread thread = new Thread(this, threadName);
+        this.thread = thread;
+        thread.start();
+        return thread;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    // Something happened (a key press, a click): end an idle wait and draw at the full rate again.
+    // May be called from any thread.
+    public void wake() {
+        woken.set(true);
+        Thread current = thread;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    @Override
+    public void run() {
+        long previousTime = System.nanoTime();
+        long accumulator = 0;
+        long nextFrameTime = previousTime;
+
+        while (running) {
+            long now = System.nanoTime();
+            long elapsed = now - previousTime;
+            previousTime = now;
+
+            // After a long stall (debugger, window drag, GC) don't try to replay all of it
+            accumulator += Math.min(elapsed, tickNanos * maxCatchUpTicks);
+
+            int ticks = 0;
+            while (accumulator >= tickNanos && ticks < maxCatchUpTicks) {
+                listener.tick();
+                accumulator -= tickNanos;
+                ticks++;
+            }
+            // Still behind after the catch-up limit: drop the backlog instead of carrying it forward
+            if (accumulator >= tickNanos) {
+                accumulator %= tickNanos;
+            }
+
+            listener.render((double) accumulator / tickNanos);
+
+            // Taken before asking isIdle, so a wake that lands during the question is kept for the
+            // wait below, which then returns at once
+            boolean wasWoken = woken.getAndSet(false);
+            long nextFrameNanos = (idleFrameNanos != frameNanos && !wasWoken && listener.isIdle()) ? idleFrameNanos : frameNanos;
+            nextFrameTime += nextFrameNanos;
+            now = System.nanoTime();
+            if (nextFrameTime < now) {
+                // We missed the frame deadline, so schedule the next one from now
+                nextFrameTime = now + nextFrameNanos;
+            }
+            waitUntil(nextFrameTime);
+            // Woken early: this frame happens now, and the ones after it count from here
+            nextFrameTime = Math.min(nextFrameTime, System.nanoTime());
+        }
+    }
+
+    private void waitUntil(long deadline) {
+        long remaining;
+        while (running && !woken.get() && (remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
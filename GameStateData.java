@@ -1,9 +1,13 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.List;
 import java.awt.Point;
 
-// This class holds all the data we need to save.
-// It MUST implement Serializable.
+// This class holds all the data we need to save. SaveCodec defines the file format; the class
+// stays Serializable only so that saves from before that format can still be read.
 public class GameStateData implements Serializable {
     // Required for serialization to work correctly
     private static final long serialVersionUID = 1L;
@@ -23,16 +27,48 @@ public class GameStateData implements Serializable {
 
 
     // Add fields for game state
-    public DonkeyGamePanel.GameState currentGameState;
+    public World.GameState currentGameState;
     public int level20EnemiesDefeated;
 
 
     // World data
-    public List<DonkeyGamePanel.Enemy> enemies;
+    public List<World.Enemy> enemies;
     public List<Point> rocks;
     public List<Point> stumps;
     public List<Point> coins; // List of coin positions
     public List<Point> foods;
 
     public int cameraX, cameraY; // Camera position
-}
\ No newline at end of file
+
+    // Terrain. Saves from before these existed are read as the default world, with every
+    // rock and stump listed above. A streamed world lists none and is made again from its seed.
+    public int worldWidth, worldHeight;
+    public boolean streamedTerrain;
+    public long terrainSeed;
+    public double rockDensity, stumpDensity;
+
+    // The seed the game was started from. While terrainFromSeed is set, the rocks and stumps are
+    // the ones that seed generates with numRocks and numStumps, and the lists above stay empty.
+    public long seed;
+    public boolean terrainFromSeed;
+    public int numRocks, numStumps;
+
+    // Writes this save to a stream (the caller closes it)
+    public void writeTo(OutputStream out) throws IOException {
+        SaveCodec.write(this, out);
+    }
+
+    // Writes this save to a file, replacing any old one only once the new one is safely on disk
+    public void writeTo(Path file) throws IOException {
+        SaveCodec.write(this, file);
+    }
+
+    // Reads a save written by writeTo, including saves from older versions of the game
+    public static GameStateData readFrom(InputStream in) throws IOException {
+        return SaveCodec.read(in);
+    }
+
+    public static GameStateData readFrom(Path file) throws IOException {
+        return SaveCodec.read(file);
+    }
+}
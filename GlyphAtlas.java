@@ -0,0 +1,405 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * One font in one colour (with an optional drop shadow), with every printable ASCII glyph
+ * rasterized once into a single atlas image. Each line of text drawn is put together from
+ * those glyphs once, shadow included, and kept, so drawing it again is a single image blit
+ * instead of laying the string out again (twice, for the shadow) on every frame. Widths
+ * come from the advances stored at build time, so measuring needs no FontMetrics either.
+ *
+ * Blits have a fixed cost that is several times that of one glyph, which is why whole
+ * lines are cached rather than glyphs blitted one by one. Labels made of a prefix and a
+ * number ("Lvl " and 12) are cached by the number, so they don't build a string either.
+ *
+ * Text can also come as a char buffer and length (the floating messages), which is looked
+ * up in the same cache without making a string.
+ *
+ * Glyphs are rasterized at the scale of the target's transform, so text is as sharp as
+ * drawString would make it on a HiDPI screen or in a big window, and lines are blitted
+ * 1:1 in device pixels. When the scale changes (the window was resized) the atlas is
+ * rasterized again and the cached lines dropped. Layout (widths, extents) stays in user
+ * space and doesn't depend on the scale.
+ *
+ * Strings with characters outside the atlas, and targets that are rotated or sheared, fall
+ * back to drawString. Glyphs are drawn without anti-aliasing, like the drawString calls
+ * they replace, and the shadow sits one pixel down and right. An atlas is only used by
+ * the thread that renders with it.
+ */
+class GlyphAtlas {
+    private static final char FIRST = 32, LAST = 126;
+    private static final int COLUMNS = 16; // Glyph cells per atlas row
+    private static final int PAD = 2; // Room around each glyph for overhangs and the shadow
+    private static final int MAX_LINES = 256; // Cached lines are all dropped past this many
+
+    private static final AffineTransform DEVICE_SPACE = new AffineTransform();
+
+    private final Font font;
+    private final Color color, shadow;
+    private final int[] advances = new int[LAST - FIRST + 1]; // In user space, like everything else measured
+    private final int widest;
+    private final int ascent, descent;
+
+    // The atlas at the scale it was last drawn at, in device pixels (null until the first draw)
+    private BufferedImage atlas;
+    private double atlasScaleX, atlasScaleY;
+    private int cellWidth, cellHeight;
+    private int padX, padY; // PAD, scaled
+
+    // Lines already put together: plain text by its characters, and numbers by the prefix they follow
+    private final Map<LineKey, BufferedImage> lines = new HashMap<>();
+    private final LineKey probe = new LineKey(); // Reused for lookups
+    private final Map<String, TileMap<BufferedImage>> numberLines = new IdentityHashMap<>();
+    private int lineCount;
+
+    public GlyphAtlas(Font font, Color color, Color shadow) {
+        this.font = font;
+        this.color = color;
+        this.shadow = shadow;
+
+        // Measure on a scratch image, since there may be no screen yet (or ever, when headless)
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D measure = scratch.createGraphics();
+        FontMetrics metrics = measure.getFontMetrics(font);
+        measure.dispose();
+        int widestAdvance = 0;
+        for (char c = FIRST; c <= LAST; c++) {
+            advances[c - FIRST] = metrics.charWidth(c);
+            widestAdvance = Math.max(widestAdvance, advances[c - FIRST]);
+        }
+        widest = widestAdvance;
+        ascent = metrics.getAscent();
+        descent = metrics.getDescent();
+    }
+
+    // Rasterizes every glyph for a target that scales user space by (scaleX, scaleY), and
+    // drops the lines put together at the old scale
+    private void rasterize(double scaleX, double scaleY) {
+        padX = (int) Math.ceil(PAD * scaleX);
+        padY = (int) Math.ceil(PAD * scaleY);
+        // Room for the widest glyph, its overhangs and the shadow's offset
+        cellWidth = (int) Math.ceil(widest * scaleX) + 2 * padX + (int) Math.ceil(scaleX);
+        cellHeight = (int) Math.ceil((ascent + descent) * scaleY) + 2 * padY + (int) Math.ceil(scaleY);
+
+        int rows = (LAST - FIRST + COLUMNS) / COLUMNS;
+        atlas = new BufferedImage(COLUMNS * cellWidth, rows * cellHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = atlas.createGraphics();
+        try {
+            g.setFont(font);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+            for (char c = FIRST; c <= LAST; c++) {
+                // The pen sits on a whole device pixel, padX and padY into the cell
+                g.setTransform(DEVICE_SPACE);
+                g.translate(cellX(c) + padX, cellY(c) + padY);
+                g.scale(scaleX, scaleY);
+                String glyph = String.valueOf(c);
+                if (shadow != null) {
+                    g.setColor(shadow);
+                    g.drawString(glyph, 1, ascent + 1);
+                }
+                g.setColor(color);
+                g.drawString(glyph, 0, ascent);
+            }
+        } finally {
+            g.dispose();
+        }
+        atlasScaleX = scaleX;
+        atlasScaleY = scaleY;
+        lines.clear();
+        numberLines.clear();
+        lineCount = 0;
+    }
+
+    public int stringWidth(String text) {
+        probe.set(text);
+        return stringWidth(probe.chars, probe.length);
+    }
+
+    // Width of the first length chars of text
+    public int stringWidth(char[] text, int length) {
+        if (!isInAtlas(text, length)) {
+            return fallbackWidth(new String(text, 0, length));
+        }
+        int width = 0;
+        for (int i = 0; i < length; i++) {
+            width += advances[text[i] - FIRST];
+        }
+        return width;
+    }
+
+    // Width of prefix followed by number, without building the string
+    public int stringWidth(String prefix, int number) {
+        int width = stringWidth(prefix);
+        long value = number;
+        if (value < 0) {
+            width += advances['-' - FIRST];
+            value = -value;
+        }
+        // Every digit is as wide as '0' in the fonts used here, but measure them properly anyway
+        for (long divisor = divisorFor(value); divisor > 0; divisor /= 10) {
+            width += advances[(int) ('0' + (value / divisor) % 10) - FIRST];
+        }
+        return width;
+    }
+
+    // How far a drawn line can reach above and below its baseline, and past either end of its
+    // width (shadow and overhangs included), for working out what it covers on screen
+    public int extentAbove() {
+        return ascent + PAD;
+    }
+
+    public int extentBelow() {
+        return descent + PAD + 1;
+    }
+
+    public int overhang() {
+        return PAD + 1;
+    }
+
+    // Draws text with its baseline at y, like drawString
+    public void drawString(Graphics2D g2d, String text, int x, int y) {
+        probe.set(text);
+        drawLine(g2d, x, y);
+    }
+
+    // Draws the first length chars of text with the baseline at y
+    public void drawString(Graphics2D g2d, char[] text, int length, int x, int y) {
+        probe.set(text, length);
+        drawLine(g2d, x, y);
+    }
+
+    // Draws the text in the probe, putting its line together first if it isn't cached
+    private void drawLine(Graphics2D g2d, int x, int y) {
+        AffineTransform transform = g2d.getTransform();
+        if (!isInAtlas(probe.chars, probe.length) || !useScaleOf(transform)) {
+            fallbackDraw(g2d, new String(probe.chars, 0, probe.length), x, y);
+            return;
+        }
+        BufferedImage line = lines.get(probe);
+        if (line == null) {
+            line = newLine(g2d, stringWidth(probe.chars, probe.length));
+            Graphics2D g = line.createGraphics();
+            try {
+                int penX = 0;
+                for (int i = 0; i < probe.length; i++) {
+                    penX = drawGlyph(g, probe.chars[i], penX);
+                }
+            } finally {
+                g.dispose();
+            }
+            lines.put(probe.copy(), line);
+        }
+        blit(g2d, transform, line, x, y);
+    }
+
+    // Draws prefix followed by number (e.g. "Lvl " and 12), without building the string.
+    // The prefix should be a constant, since its lines are found by identity.
+    public void drawString(Graphics2D g2d, String prefix, int number, int x, int y) {
+        AffineTransform transform = g2d.getTransform();
+        if (!isInAtlas(prefix) || !useScaleOf(transform)) {
+            fallbackDraw(g2d, prefix + number, x, y);
+            return;
+        }
+        TileMap<BufferedImage> prefixLines = numberLines.get(prefix);
+        if (prefixLines == null) {
+            prefixLines = new TileMap<>();
+            numberLines.put(prefix, prefixLines);
+        }
+        BufferedImage line = prefixLines.get(number);
+        if (line == null) {
+            line = newLine(g2d, stringWidth(prefix, number));
+            Graphics2D g = line.createGraphics();
+            try {
+                int penX = drawGlyphs(g, prefix, 0);
+                long value = number;
+                if (value < 0) {
+                    penX = drawGlyph(g, '-', penX);
+                    value = -value;
+                }
+                for (long divisor = divisorFor(value); divisor > 0; divisor /= 10) {
+                    penX = drawGlyph(g, (char) ('0' + (value / divisor) % 10), penX);
+                }
+            } finally {
+                g.dispose();
+            }
+            prefixLines.put(number, line);
+        }
+        blit(g2d, transform, line, x, y);
+    }
+
+    // Makes sure the atlas is rasterized at the transform's scale. False if the transform
+    // isn't a plain scale and translation, so no one scale fits it.
+    private boolean useScaleOf(AffineTransform transform) {
+        double scaleX = transform.getScaleX(), scaleY = transform.getScaleY();
+        if (transform.getShearX() != 0 || transform.getShearY() != 0 || scaleX <= 0 || scaleY <= 0) {
+            return false;
+        }
+        if (atlas == null || scaleX != atlasScaleX || scaleY != atlasScaleY) {
+            rasterize(scaleX, scaleY);
+        }
+        return true;
+    }
+
+    // Draws a line 1:1 in device space with its pen at (x, baseline y) in user space
+    private void blit(Graphics2D g2d, AffineTransform transform, BufferedImage line, int x, int y) {
+        int left = (int) Math.round(x * atlasScaleX + transform.getTranslateX()) - padX;
+        int top = (int) Math.round((y - ascent) * atlasScaleY + transform.getTranslateY()) - padY;
+        g2d.setTransform(DEVICE_SPACE);
+        g2d.drawImage(line, left, top, null);
+        g2d.setTransform(transform);
+    }
+
+    // An empty line image, in device pixels, for text of the given width in user space, after
+    // making room for it in the cache.
+    // Glyphs aren't anti-aliased, so every pixel is either clear or solid: a BITMASK image in
+    // the target's own format blits without any blending.
+    private BufferedImage newLine(Graphics2D target, int textWidth) {
+        if (++lineCount > MAX_LINES) {
+            // Old messages and numbers pile up over a long game; the few in use come back at once
+            lines.clear();
+            numberLines.clear();
+            lineCount = 1;
+        }
+        GraphicsConfiguration config = target.getDeviceConfiguration();
+        int width = (int) Math.ceil(textWidth * atlasScaleX) + 2 * padX + 1;
+        if (config != null) {
+            return config.createCompatibleImage(width, cellHeight, Transparency.BITMASK);
+        }
+        return new BufferedImage(width, cellHeight, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    // Draws ASCII text glyph by glyph from the atlas into a line and returns the pen position after it
+    private int drawGlyphs(Graphics2D g, String text, int x) {
+        for (int i = 0; i < text.length(); i++) {
+            x = drawGlyph(g, text.charAt(i), x);
+        }
+        return x;
+    }
+
+    // Blits one glyph into a line with its pen x user-space pixels along, and returns the next
+    // pen position. Cells and lines both have the pen padX and padY in, so they line up 1:1.
+    private int drawGlyph(Graphics2D g, char c, int x) {
+        if (c != ' ') {
+            int sx = cellX(c), sy = cellY(c);
+            int dx = (int) Math.round(x * atlasScaleX);
+            g.drawImage(atlas, dx, 0, dx + cellWidth, cellHeight, sx, sy, sx + cellWidth, sy + cellHeight, null);
+        }
+        return x + advances[c - FIRST];
+    }
+
+    private static boolean isInAtlas(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < FIRST || text.charAt(i) > LAST) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isInAtlas(char[] text, int length) {
+        for (int i = 0; i < length; i++) {
+            if (text[i] < FIRST || text[i] > LAST) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int cellX(char c) {
+        return ((c - FIRST) % COLUMNS) * cellWidth;
+    }
+
+    private int cellY(char c) {
+        return ((c - FIRST) / COLUMNS) * cellHeight;
+    }
+
+    // The power of ten of the leading digit (1 for 0..9)
+    private static long divisorFor(long value) {
+        long divisor = 1;
+        while (divisor * 10 <= value) {
+            divisor *= 10;
+        }
+        return divisor;
+    }
+
+    private int fallbackWidth(String text) {
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scratch.createGraphics();
+        try {
+            return g.getFontMetrics(font).stringWidth(text);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // A line's characters, as a map key. The probe is refilled for each lookup; the keys
+    // stored in the map are copies that are never changed.
+    private static final class LineKey {
+        char[] chars = new char[32];
+        int length;
+        int hash;
+
+        void set(String text) {
+            length = text.length();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            text.getChars(0, length, chars, 0);
+            rehash();
+        }
+
+        void set(char[] text, int textLength) {
+            length = textLength;
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            System.arraycopy(text, 0, chars, 0, length);
+            rehash();
+        }
+
+        LineKey copy() {
+            LineKey key = new LineKey();
+            key.chars = Arrays.copyOf(chars, length);
+            key.length = length;
+            key.hash = hash;
+            return key;
+        }
+
+        private void rehash() {
+            int h = 0;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + chars[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof LineKey)) {
+                return false;
+            }
+            LineKey key = (LineKey) other;
+            return hash == key.hash && Arrays.equals(chars, 0, length, key.chars, 0, key.length);
+        }
+    }
+
+    private void fallbackDraw(Graphics2D g2d, String text, int x, int y) {
+        g2d.setFont(font);
+        if (shadow != null) {
+            g2d.setColor(shadow);
+            g2d.drawString(text, x + 1, y + 1);
+        }
+        g2d.setColor(color);
+        g2d.drawString(text, x, y);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * The floating messages shown above the hero, oldest first, held in a fixed number of
+ * reusable slots. Each slot keeps its text in its own char buffer, and numbers are written
+ * into it digit by digit, so showing a message ("+25 XP", "Ouch! -3 HP") allocates nothing.
+ *
+ * Every message lasts the same time, so they expire in the order they were added and
+ * expiring only ever looks at the oldest. When all slots are taken, the oldest message
+ * makes way for the new one (it would be drawn far above the hero by then anyway).
+ */
+class MessageRing {
+    static final int MAX_LENGTH = 64; // Longer messages are cut off
+
+    private final char[][] text;
+    private final int[] length;
+    private final long[] endTime; // Simulated milliseconds
+    private int head; // Slot of the oldest message
+    private int count;
+
+    public MessageRing(int capacity) {
+        text = new char[capacity][MAX_LENGTH];
+        length = new int[capacity];
+        endTime = new long[capacity];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // The text of the i-th oldest message is the first length(i) chars of text(i)
+    public char[] text(int i) {
+        return text[slot(i)];
+    }
+
+    public int length(int i) {
+        return length[slot(i)];
+    }
+
+    public void add(String message, long endTime) {
+        int slot = take(endTime);
+        length[slot] = append(text[slot], 0, message);
+    }
+
+    // Adds prefix, then number, then suffix, without building a string
+    public void add(String prefix, long number, String suffix, long endTime) {
+        int slot = take(endTime);
+        char[] chars = text[slot];
+        int end = append(chars, 0, prefix);
+        end = appendNumber(chars, end, number);
+        length[slot] = append(chars, end, suffix);
+    }
+
+    // Drops the messages whose time is up
+    public void expire(long now) {
+        while (count > 0 && now > endTime[head]) {
+            head = (head + 1) % text.length;
+            count--;
+        }
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    // Claims the slot for a new message, pushing out the oldest if every slot is in use
+    private int take(long messageEndTime) {
+        if (count == text.length) {
+            head = (head + 1) % text.length;
+            count--;
+        }
+        int slot = slot(count++);
+        endTime[slot] = messageEndTime;
+        return slot;
+    }
+
+    private int slot(int i) {
+        return (head + i) % text.length;
+    }
+
+    // Copies as much of s as fits after position start and returns the new end
+    private static int append(char[] chars, int start, String s) {
+        int end = Math.min(chars.length, start + s.length());
+        s.getChars(0, end - start, chars, start);
+        return end;
+    }
+
+    private static int appendNumber(char[] chars, int start, long number) {
+        if (number < 0) {
+            if (start < chars.length) {
+                chars[start++] = '-';
+            }
+        } else {
+            number = -number; // Digits are taken from the negative value, which Long.MIN_VALUE has too
+        }
+        int digits = 1;
+        for (long rest = number / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int end = Math.min(chars.length, start + digits);
+        // Write from the last digit back, dropping any that don't fit
+        for (int i = start + digits - 1; i >= start; i--) {
+            if (i < end) {
+                chars[i] = (char) ('0' - number % 10);
+            }
+            number /= 10;
+        }
+        return end;
+    }
+}
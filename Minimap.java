@@ -0,0 +1,211 @@
+import java.util.Arrays;
+
+/**
+ * An overview of the whole world, one cell per tile (or per square of tiles in a big world),
+ * kept as ARGB pixels for the renderer to scale up. The World reports every change to it as
+ * it happens: terrain pages loaded and unloaded, obstacles added, enemies and pickups placed,
+ * moved and removed. Each report recounts only the cells it touches and repaints only those
+ * pixels, so keeping the map current costs the same however big the world is or however
+ * many entities it holds; nothing is ever rasterized again from scratch except on a new world.
+ *
+ * A cell shows the most important thing in it: the boss, then enemies, coins, food,
+ * obstacles, open ground. Cells of a streamed world that haven't been loaded yet stay dark.
+ * Only the game thread touches a minimap; snapshots take a copy of its pixels.
+ */
+class Minimap {
+    // Kinds of entity, in increasing order of importance
+    static final int FOOD = 0, COIN = 1, ENEMY = 2, BOSS = 3;
+    private static final int KINDS = 4;
+
+    // Largest map, in cells; bigger worlds put several tiles in each cell
+    static final int MAX_COLUMNS = 176, MAX_ROWS = 100;
+
+    private static final int UNEXPLORED = 0xFF161A0B;
+    private static final int GROUND = 0xFF3C4A15;
+    private static final int OBSTACLE = 0xFF8A857A;
+    private static final int[] KIND_COLORS = {0xFFFF9A3C, 0xFFFFD700, 0xFFE02020, 0xFFFF40FF};
+
+    private static final int UNIT_SIZE = World.UNIT_SIZE;
+    private static final int PAGE_TILES = OccupancyGrid.PAGE_TILES;
+
+    private int columns, rows; // World size in tiles
+    private int tilesPerCell = 1;
+    private int width, height; // In cells
+    private int[] loadedTiles = new int[0]; // Per cell, how many of its tiles are on loaded pages
+    private int[] obstacles = new int[0];   // Per cell, how many of its tiles hold an obstacle
+    private final int[][] entities = new int[KINDS][0]; // Per kind and cell, how many are there
+    private int[] pixels = new int[0];
+    private long version; // Goes up whenever a pixel changes
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int tilesPerCell() {
+        return tilesPerCell;
+    }
+
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    // Starts over for an empty world of columns x rows tiles with nothing loaded
+    public void reset(int columns, int rows) {
+        this.columns = columns;
+        this.rows = rows;
+        tilesPerCell = Math.max(1, Math.max(ceilDiv(columns, MAX_COLUMNS), ceilDiv(rows, MAX_ROWS)));
+        width = Math.max(1, ceilDiv(columns, tilesPerCell));
+        height = Math.max(1, ceilDiv(rows, tilesPerCell));
+        int cells = width * height;
+        if (pixels.length != cells) {
+            loadedTiles = new int[cells];
+            obstacles = new int[cells];
+            for (int kind = 0; kind < KINDS; kind++) {
+                entities[kind] = new int[cells];
+            }
+            pixels = new int[cells];
+        } else {
+            Arrays.fill(loadedTiles, 0);
+            Arrays.fill(obstacles, 0);
+            for (int kind = 0; kind < KINDS; kind++) {
+                Arrays.fill(entities[kind], 0);
+            }
+        }
+        Arrays.fill(pixels, UNEXPLORED);
+        version++;
+    }
+
+    // --- Terrain ---
+
+    // A grid page was loaded: its tiles (and any obstacles already on them) join the map
+    public void pageLoaded(int pageX, int pageY, OccupancyGrid grid) {
+        changePage(pageX, pageY, grid, 1);
+    }
+
+    // A grid page is about to be unloaded: its tiles leave the map again
+    public void pageUnloaded(int pageX, int pageY, OccupancyGrid grid) {
+        changePage(pageX, pageY, grid, -1);
+    }
+
+    public void obstacleAdded(int column, int row) {
+        int cell = cellOfTile(column, row);
+        if (cell >= 0) {
+            obstacles[cell]++;
+            repaint(cell);
+        }
+    }
+
+    // Every obstacle was removed, while the pages stay loaded
+    public void obstaclesCleared() {
+        Arrays.fill(obstacles, 0);
+        for (int cell = 0; cell < pixels.length; cell++) {
+            repaint(cell);
+        }
+    }
+
+    private void changePage(int pageX, int pageY, OccupancyGrid grid, int sign) {
+        int firstColumn = pageX * PAGE_TILES, firstRow = pageY * PAGE_TILES;
+        for (int row = firstRow; row < firstRow + PAGE_TILES; row++) {
+            for (int column = firstColumn; column < firstColumn + PAGE_TILES; column++) {
+                int cell = cellOfTile(column, row);
+                if (cell < 0) {
+                    continue;
+                }
+                loadedTiles[cell] += sign;
+                if (grid.get(column, row)) {
+                    obstacles[cell] += sign;
+                }
+            }
+        }
+        // Then repaint every cell the page overlaps
+        int lastColumn = firstColumn + PAGE_TILES - 1, lastRow = firstRow + PAGE_TILES - 1;
+        for (int cellY = firstRow / tilesPerCell; cellY <= lastRow / tilesPerCell && cellY < height; cellY++) {
+            for (int cellX = firstColumn / tilesPerCell; cellX <= lastColumn / tilesPerCell && cellX < width; cellX++) {
+                repaint(cellY * width + cellX);
+            }
+        }
+    }
+
+    // --- Entities (placed by their top-left corner in world pixels) ---
+
+    public void added(int kind, int x, int y, int size) {
+        changeEntity(kind, cellOf(x, y, size), 1);
+    }
+
+    public void removed(int kind, int x, int y, int size) {
+        changeEntity(kind, cellOf(x, y, size), -1);
+    }
+
+    public void moved(int kind, int oldX, int oldY, int oldSize, int newKind, int newX, int newY, int newSize) {
+        int oldCell = cellOf(oldX, oldY, oldSize), newCell = cellOf(newX, newY, newSize);
+        if (oldCell != newCell || kind != newKind) {
+            changeEntity(kind, oldCell, -1);
+            changeEntity(newKind, newCell, 1);
+        }
+    }
+
+    // Every entity of this kind is gone
+    public void cleared(int kind) {
+        int[] counts = entities[kind];
+        for (int cell = 0; cell < counts.length; cell++) {
+            if (counts[cell] != 0) {
+                counts[cell] = 0;
+                repaint(cell);
+            }
+        }
+    }
+
+    private void changeEntity(int kind, int cell, int change) {
+        if (cell >= 0) {
+            entities[kind][cell] += change;
+            repaint(cell);
+        }
+    }
+
+    // --- Cells ---
+
+    // The cell under the middle of an entity, or -1 if that is outside the world
+    private int cellOf(int x, int y, int size) {
+        return cellOfTile(Math.floorDiv(x + size / 2, UNIT_SIZE), Math.floorDiv(y + size / 2, UNIT_SIZE));
+    }
+
+    private int cellOfTile(int column, int row) {
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            return -1;
+        }
+        return (row / tilesPerCell) * width + column / tilesPerCell;
+    }
+
+    private void repaint(int cell) {
+        int color = colorOf(cell);
+        if (pixels[cell] != color) {
+            pixels[cell] = color;
+            version++;
+        }
+    }
+
+    private int colorOf(int cell) {
+        for (int kind = KINDS - 1; kind >= 0; kind--) {
+            if (entities[kind][cell] > 0) {
+                return KIND_COLORS[kind];
+            }
+        }
+        if (loadedTiles[cell] == 0) {
+            return UNEXPLORED;
+        }
+        // A cell of many tiles only looks blocked if most of what is loaded of it is
+        return (obstacles[cell] * 2 > loadedTiles[cell]) ? OBSTACLE : GROUND;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
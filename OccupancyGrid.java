@@ -0,0 +1,162 @@
+/**
+ * One bit per world tile, set where the tile is blocked by an obstacle.
+ * Tiles are stored in pages of PAGE_TILES x PAGE_TILES, kept in a TileMap by page position,
+ * so the grid has no fixed size: a page only exists while it is loaded, and the world can
+ * stream pages in and out as the hero moves. Tiles in pages that aren't loaded read as free.
+ *
+ * Lookups are a page lookup (usually the same page as last time) and a mask, with no
+ * allocation.
+ */
+class OccupancyGrid {
+    static final int PAGE_TILES = 16;
+    static final int PAGE_SHIFT = 4; // log2(PAGE_TILES)
+    private static final int PAGE_WORDS = PAGE_TILES * PAGE_TILES / 64;
+
+    private final TileMap<long[]> pages = new TileMap<>();
+
+    // The page found by the last lookup. A grid is only ever used by one thread.
+    private long cachedKey = Long.MIN_VALUE;
+    private long[] cachedPage;
+
+    public boolean get(int column, int row) {
+        long[] page = page(column >> PAGE_SHIFT, row >> PAGE_SHIFT);
+        if (page == null) {
+            return false;
+        }
+        int bit = bitIndex(column, row);
+        return (page[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    // Blocks a tile. Its page is loaded if it wasn't already.
+    public void set(int column, int row) {
+        long[] page = loadPage(column >> PAGE_SHIFT, row >> PAGE_SHIFT);
+        int bit = bitIndex(column, row);
+        page[bit >>> 6] |= 1L << bit;
+    }
+
+    public void clear(int column, int row) {
+        long[] page = page(column >> PAGE_SHIFT, row >> PAGE_SHIFT);
+        if (page != null) {
+            int bit = bitIndex(column, row);
+            page[bit >>> 6] &= ~(1L << bit);
+        }
+    }
+
+    // True if no tile in the width x height block starting at (column, row) is set.
+    // Tests each page the block overlaps a word (four rows of the page) at a time, against
+    // a mask of the block's columns in those rows.
+    public boolean isAreaFree(int column, int row, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return true;
+        }
+        int lastColumn = column + width - 1, lastRow = row + height - 1;
+        for (int pageY = row >> PAGE_SHIFT; pageY <= lastRow >> PAGE_SHIFT; pageY++) {
+            for (int pageX = column >> PAGE_SHIFT; pageX <= lastColumn >> PAGE_SHIFT; pageX++) {
+                long[] page = page(pageX, pageY);
+                if (page == null) {
+                    continue;
+                }
+                // The block's columns within this page, as one row of the page
+                int firstBit = Math.max(column, pageX << PAGE_SHIFT) & (PAGE_TILES - 1);
+                int lastBit = Math.min(lastColumn, (pageX << PAGE_SHIFT) + PAGE_TILES - 1) & (PAGE_TILES - 1);
+                long rowMask = (-1L >>> (63 - lastBit + firstBit)) << firstBit;
+
+                int firstRow = Math.max(row, pageY << PAGE_SHIFT) & (PAGE_TILES - 1);
+                int endRow = (Math.min(lastRow, (pageY << PAGE_SHIFT) + PAGE_TILES - 1) & (PAGE_TILES - 1)) + 1;
+                for (int r = firstRow; r < endRow; ) {
+                    int word = r >> 2;
+                    long mask = 0;
+                    for (; r < endRow && r >> 2 == word; r++) {
+                        mask |= rowMask << ((r & 3) << PAGE_SHIFT);
+                    }
+                    if ((page[word] & mask) != 0) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // --- Pages ---
+
+    public boolean hasPage(int pageX, int pageY) {
+        return page(pageX, pageY) != null;
+    }
+
+    // Makes sure a page exists (all free if new) and returns it
+    long[] loadPage(int pageX, int pageY) {
+        long[] page = page(pageX, pageY);
+        if (page == null) {
+            page = new long[PAGE_WORDS];
+            pages.put(TileMap.key(pageX, pageY), page);
+            cachedKey = TileMap.key(pageX, pageY);
+            cachedPage = page;
+        }
+        return page;
+    }
+
+    public void removePage(int pageX, int pageY) {
+        pages.remove(TileMap.key(pageX, pageY));
+        cachedKey = Long.MIN_VALUE;
+        cachedPage = null;
+    }
+
+    public int pageCount() {
+        return pages.size();
+    }
+
+    // Number of blocked tiles in a page (0 if it isn't loaded)
+    public int countPage(int pageX, int pageY) {
+        long[] page = page(pageX, pageY);
+        int count = 0;
+        if (page != null) {
+            for (long word : page) {
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    // True if both grids have the page loaded with the same tiles, or neither has it
+    public boolean samePage(OccupancyGrid other, int pageX, int pageY) {
+        return java.util.Arrays.equals(page(pageX, pageY), other.page(pageX, pageY));
+    }
+
+    // Calls the visitor with the page position of every loaded page
+    public void forEachPage(TileMap.Visitor<long[]> visitor) {
+        pages.forEach(visitor);
+    }
+
+    // Frees every tile but keeps the pages loaded
+    public void clearAll() {
+        pages.forEach((key, page) -> java.util.Arrays.fill(page, 0));
+    }
+
+    // Unloads every page
+    public void removeAllPages() {
+        pages.clear();
+        cachedKey = Long.MIN_VALUE;
+        cachedPage = null;
+    }
+
+    // An independent copy, e.g. to hand to another thread that must not see later changes
+    public OccupancyGrid copy() {
+        OccupancyGrid copy = new OccupancyGrid();
+        pages.forEach((key, page) -> copy.pages.put(key, page.clone()));
+        return copy;
+    }
+
+    private long[] page(int pageX, int pageY) {
+        long key = TileMap.key(pageX, pageY);
+        if (key != cachedKey) {
+            cachedPage = pages.get(key);
+            cachedKey = key;
+        }
+        return cachedPage;
+    }
+
+    private static int bitIndex(int column, int row) {
+        return ((row & (PAGE_TILES - 1)) << PAGE_SHIFT) | (column & (PAGE_TILES - 1));
+    }
+}
@@ -0,0 +1,259 @@
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Toggleable performance overlay (F3 in game).
+ * Shows how a frame splits between update and paint, frame time percentiles from a
+ * log-bucketed histogram, actual vs target FPS, entity counts and allocation per tick.
+ * Figures cover the last complete one-second window. While the overlay is off, every
+ * recording call returns after a single volatile read.
+ */
+class PerfOverlay {
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 170);
+
+    private volatile boolean enabled = false;
+    private volatile int targetFps;
+
+    // Set by toggle(), on the EDT; each thread then starts its own window over
+    private volatile boolean tickResetRequested, paintResetRequested;
+
+    // Used to read per-thread allocation counters, if this JVM has them
+    private final com.sun.management.ThreadMXBean threadBean;
+
+    // --- Game thread only ---
+    private long tickWindowStart;
+    private long tickNanosInWindow;
+    private long tickAllocInWindow;
+    private int ticksInWindow;
+    private long tickAllocStart;
+
+    // --- Paint thread only ---
+    private final Histogram frameTimes = new Histogram();
+    private long paintWindowStart;
+    private long lastFrameStart;
+    private long paintNanosInWindow;
+    private int framesInWindow;
+
+    // --- Published results (written once per window, read when drawing) ---
+    private volatile double updateMillis;
+    private volatile long allocBytesPerTick = -1;
+    private volatile double paintMillis;
+    private volatile double frameP50Millis, frameP99Millis, frameMaxMillis;
+    private volatile int actualFps;
+
+    public PerfOverlay(int targetFps) {
+        this.targetFps = targetFps;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            this.threadBean = (com.sun.management.ThreadMXBean) bean;
+            this.threadBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            this.threadBean = null;
+        }
+    }
+
+    public void setTargetFps(int targetFps) {
+        this.targetFps = targetFps;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void toggle() {
+        // Start fresh windows so stale numbers from the last time it was shown aren't mixed in
+        tickResetRequested = true;
+        paintResetRequested = true;
+        enabled = !enabled;
+    }
+
+    // --- Recording (update) ---
+
+    // Returns the start time to pass to endTick, or 0 when the overlay is off
+    public long beginTick() {
+        if (!enabled) {
+            return 0;
+        }
+        if (tickResetRequested) {
+            tickResetRequested = false;
+            tickWindowStart = 0; // endTick starts the window over
+        }
+        if (threadBean != null) {
+            tickAllocStart = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return System.nanoTime();
+    }
+
+    public void endTick(long start) {
+        if (start == 0) {
+            return;
+        }
+        long end = System.nanoTime();
+        if (threadBean != null) {
+            tickAllocInWindow += threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - tickAllocStart;
+        }
+        tickNanosInWindow += end - start;
+        ticksInWindow++;
+
+        if (tickWindowStart == 0) {
+            resetTickWindow(end);
+        } else if (end - tickWindowStart >= WINDOW_NANOS) {
+            updateMillis = tickNanosInWindow / 1e6 / ticksInWindow;
+            allocBytesPerTick = (threadBean != null) ? tickAllocInWindow / ticksInWindow : -1;
+            resetTickWindow(end);
+        }
+    }
+
+    private void resetTickWindow(long now) {
+        tickWindowStart = now;
+        tickNanosInWindow = 0;
+        tickAllocInWindow = 0;
+        ticksInWindow = 0;
+    }
+
+    // --- Recording (paint) ---
+
+    public long beginPaint() {
+        if (!enabled) {
+            return 0;
+        }
+        if (paintResetRequested) {
+            paintResetRequested = false;
+            paintWindowStart = 0; // endPaint starts the window over
+        }
+        long start = System.nanoTime();
+        if (lastFrameStart != 0 && paintWindowStart != 0) {
+            frameTimes.record(start - lastFrameStart);
+        }
+        lastFrameStart = start;
+        return start;
+    }
+
+    public void endPaint(long start) {
+        if (start == 0) {
+            return;
+        }
+        long end = System.nanoTime();
+        paintNanosInWindow += end - start;
+        framesInWindow++;
+
+        if (paintWindowStart == 0) {
+            resetPaintWindow(end);
+        } else if (end - paintWindowStart >= WINDOW_NANOS) {
+            paintMillis = paintNanosInWindow / 1e6 / framesInWindow;
+            frameP50Millis = frameTimes.percentile(50) / 1e6;
+            frameP99Millis = frameTimes.percentile(99) / 1e6;
+            frameMaxMillis = frameTimes.max() / 1e6;
+            actualFps = (int) Math.round(framesInWindow * 1e9 / (end - paintWindowStart));
+            resetPaintWindow(end);
+        }
+    }
+
+    private void resetPaintWindow(long now) {
+        paintWindowStart = now;
+        paintNanosInWindow = 0;
+        framesInWindow = 0;
+        frameTimes.reset();
+    }
+
+    // --- Drawing ---
+
+    // Draws the overlay in screen coordinates with its top-left corner at (x, y)
+    public void draw(Graphics2D g2d, WorldSnapshot world, int x, int y) {
+        if (!enabled) {
+            return;
+        }
+        String[] lines = {
+            String.format("FPS    %4d / %d target", actualFps, targetFps),
+            String.format("update %6.3f ms  paint %6.3f ms", updateMillis, paintMillis),
+            String.format("frame  p50 %5.2f  p99 %5.2f  max %5.2f ms", frameP50Millis, frameP99Millis, frameMaxMillis),
+            (allocBytesPerTick >= 0) ? String.format("alloc  %,d B/tick", allocBytesPerTick) : "alloc  n/a",
+            String.format("drawn/total  enemies %d/%d  coins %d/%d  foods %d/%d",
+                    world.enemyCount, world.enemyTotal, world.coinCountOnMap, world.coinTotal, world.foodCount, world.foodTotal),
+            String.format("rocks %d  stumps %d  chunks %d  messages %d", world.rockCount, world.stumpCount, world.loadedChunks, world.messageCount),
+            String.format("seed %d", world.seed)
+        };
+
+        g2d.setFont(FONT);
+        FontMetrics fm = g2d.getFontMetrics();
+        int lineHeight = fm.getHeight();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        g2d.setColor(BACKGROUND);
+        g2d.fillRect(x, y, width + 12, lineHeight * lines.length + 8);
+        g2d.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g2d.drawString(lines[i], x + 6, y + 4 + fm.getAscent() + i * lineHeight);
+        }
+    }
+
+    /**
+     * Log-linear histogram in the style of HdrHistogram: each power of two is split into
+     * 64 equal buckets, so any recorded value is reported within about 1.6%.
+     * Recording is a few shifts and an array increment, with no allocation.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private final long[] counts = new long[SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1)];
+        private long total;
+        private long max;
+
+        void record(long value) {
+            if (value < 0) {
+                return;
+            }
+            counts[indexOf(value)]++;
+            total++;
+            max = Math.max(max, value);
+        }
+
+        void reset() {
+            java.util.Arrays.fill(counts, 0);
+            total = 0;
+            max = 0;
+        }
+
+        long max() {
+            return max;
+        }
+
+        // Value at the given percentile (0-100), reported as the middle of its bucket
+        long percentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(valueOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+        }
+
+        static long valueOf(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+            return lowest + ((1L << shift) >> 1);
+        }
+    }
+}
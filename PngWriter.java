@@ -0,0 +1,123 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an opaque RGB PNG row by row as the rows arrive, so an image far bigger than the
+ * heap can be written a band at a time (ImageIO wants the whole image up front). Rows must
+ * come in order from the top; close() checks that all of them did and ends the file.
+ *
+ * Each row is stored with the Sub filter (every byte as the difference from the pixel to
+ * its left), which shrinks the large flat areas of the world maps well, and the compressed
+ * data goes out in IDAT chunks of up to CHUNK_SIZE bytes.
+ */
+class PngWriter implements AutoCloseable {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int FILTER_SUB = 1;
+
+    private final DataOutputStream out;
+    private final int width, height;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] row; // One filtered row, filter type byte first
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+    private int rowsWritten;
+
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Empty image: " + width + "x" + height);
+        }
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        row = new byte[1 + width * 3];
+
+        this.out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // Bits per sample
+        header[9] = 2; // Colour type: RGB
+        // Compression, filter and interlace methods are all 0
+        writeChunk("IHDR", header, header.length);
+    }
+
+    /**
+     * Writes count rows of width pixels, taken as 0xRRGGBB ints (any alpha is ignored) from
+     * pixels, starting at offset and scanlineStride apart.
+     */
+    public void writeRows(int[] pixels, int offset, int scanlineStride, int count) throws IOException {
+        if (rowsWritten + count > height) {
+            throw new IllegalStateException("More rows than the image height of " + height);
+        }
+        for (int r = 0; r < count; r++) {
+            int start = offset + r * scanlineStride;
+            row[0] = FILTER_SUB;
+            int previous = 0;
+            for (int x = 0, i = 1; x < width; x++, i += 3) {
+                int pixel = pixels[start + x];
+                row[i] = (byte) ((pixel >> 16) - (previous >> 16));
+                row[i + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+                row[i + 2] = (byte) (pixel - previous);
+                previous = pixel;
+            }
+            deflater.setInput(row);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+        rowsWritten += count;
+    }
+
+    // Finishes the image and closes the stream under it
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            if (chunkLength > 0) {
+                writeChunk("IDAT", chunk, chunkLength);
+            }
+            writeChunk("IEND", chunk, 0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    // Compresses what the deflater can into the chunk buffer, writing it out when it fills up
+    private void deflate() throws IOException {
+        chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+        if (chunkLength == CHUNK_SIZE) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] bytes, int at, int value) {
+        bytes[at] = (byte) (value >>> 24);
+        bytes[at + 1] = (byte) (value >>> 16);
+        bytes[at + 2] = (byte) (value >>> 8);
+        bytes[at + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,493 @@
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The save file format. A save is the magic bytes "DNKS", a format version byte, then
+ * sections, each a tag byte, a four-byte length and that many bytes of content, ending
+ * with the END tag. Numbers are zigzag varints (one byte for anything under 64 either way),
+ * and positions in a list are stored as the difference from the one before. Readers skip
+ * sections they don't know, so a section can be added without a new version; VERSION
+ * goes up only when an existing section changes, and upgrade() brings older data forward.
+ *
+ * Saves written before this format are Java serialization streams. They are still read,
+ * but only through a filter that lets in the handful of classes a save is made of, with
+ * limits on depth and size, so a crafted file can't construct anything else.
+ *
+ * Nothing read is trusted: counts are checked against the bytes left before anything is
+ * allocated, and a truncated or malformed file is an IOException, never a runtime error.
+ */
+class SaveCodec {
+    private static final byte[] MAGIC = {'D', 'N', 'K', 'S'};
+    static final int VERSION = 1;
+    private static final int LEGACY_VERSION = 0; // Java serialization
+
+    // Section tags. Never reuse a tag for something else.
+    private static final int END = 0, HERO = 1, TERRAIN = 2, ENEMIES = 3, COINS = 4, FOODS = 5, ROCKS = 6, STUMPS = 7;
+
+    // Largest world a save may ask for: in pixels each way, and in tiles for a classic world
+    // (whose terrain is all held at once)
+    private static final int MAX_WORLD_SIZE = 1 << 26;
+    private static final long MAX_CLASSIC_TILES = 1L << 22;
+
+    // What an old serialized save may contain (the panel's nested classes are renamed on the way in)
+    private static final ObjectInputFilter LEGACY_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=8;maxrefs=1000000;maxbytes=67108864;maxarray=1000000;"
+                    + "GameStateData;World$Enemy;World$GameState;java.lang.Enum;"
+                    + "java.util.ArrayList;java.awt.Point;java.lang.Object;!*");
+
+    private SaveCodec() {
+    }
+
+    // --- Writing ---
+
+    public static void write(GameStateData data, OutputStream out) throws IOException {
+        ByteBuffer bytes = encode(data);
+        out.write(bytes.array(), 0, bytes.limit());
+    }
+
+    /**
+     * Writes a save file so that a crash at any point leaves either the old file or the whole
+     * new one, never part of either: the save goes into a temporary file in the same directory,
+     * is forced to disk, and is then renamed over the old file in one step. The directory is
+     * forced as well where the platform allows it, so the rename itself survives a power cut.
+     */
+    public static void write(GameStateData data, Path file) throws IOException {
+        ByteBuffer bytes = encode(data);
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp); // Only still there if something failed
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can open a directory (Windows can't); the file itself is safe
+        }
+    }
+
+    // Deletes the temporary files that writes to this file left behind when the game was
+    // killed in the middle of one. Only call it while nothing is writing to the file.
+    public static void deleteLeftovers(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(directory, file.getFileName() + ".*.tmp")) {
+            for (Path temp : temps) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    // The whole save, ready to be written out from position 0 to the limit
+    private static ByteBuffer encode(GameStateData data) {
+        Writer writer = new Writer();
+        writer.buffer.put(MAGIC).put((byte) VERSION);
+
+        writer.begin(HERO);
+        writer.putInt(data.heroX);
+        writer.putInt(data.heroY);
+        writer.putInt(data.heroLevel);
+        writer.putInt(data.heroXP);
+        writer.putInt(data.xpToNextLevel);
+        writer.putInt(data.heroHealth);
+        writer.putInt(data.heroMaxHealth);
+        writer.putInt(data.coinCount);
+        writer.putInt(data.attackLevel);
+        writer.putInt(data.defenseLevel);
+        writer.putInt(data.evasivenessLevel);
+        writer.putInt(data.healthUpgradeLevel);
+        writer.putInt(data.currentGameState.ordinal()); // GameState constants are only ever added at the end
+        writer.putInt(data.level20EnemiesDefeated);
+        writer.putInt(data.cameraX);
+        writer.putInt(data.cameraY);
+        writer.end();
+
+        writer.begin(TERRAIN);
+        writer.putInt(data.worldWidth);
+        writer.putInt(data.worldHeight);
+        writer.putInt((data.streamedTerrain ? 1 : 0) | (data.terrainFromSeed ? 2 : 0));
+        writer.ensure(4 * Long.BYTES);
+        writer.buffer.putLong(data.terrainSeed).putDouble(data.rockDensity).putDouble(data.stumpDensity).putLong(data.seed);
+        writer.putInt(data.numRocks);
+        writer.putInt(data.numStumps);
+        writer.end();
+
+        writer.begin(ENEMIES);
+        writer.putInt(data.enemies.size());
+        int lastX = 0, lastY = 0;
+        for (World.Enemy enemy : data.enemies) {
+            writer.putInt(enemy.x - lastX);
+            writer.putInt(enemy.y - lastY);
+            writer.putInt(enemy.level);
+            writer.putInt(enemy.currentHealth);
+            writer.putInt(enemy.maxHealth);
+            writer.putInt(enemy.size);
+            lastX = enemy.x;
+            lastY = enemy.y;
+        }
+        writer.end();
+
+        writer.putPoints(COINS, data.coins);
+        writer.putPoints(FOODS, data.foods);
+        writer.putPoints(ROCKS, data.rocks);
+        writer.putPoints(STUMPS, data.stumps);
+
+        writer.buffer.put((byte) END);
+        return writer.buffer.flip();
+    }
+
+    // Builds the file in a heap buffer that grows as needed, so section lengths can be filled in afterwards
+    private static final class Writer {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        private int sectionStart;
+
+        void begin(int tag) {
+            ensure(1 + Integer.BYTES);
+            buffer.put((byte) tag);
+            sectionStart = buffer.position();
+            buffer.putInt(0); // Length, filled in by end()
+        }
+
+        void end() {
+            buffer.putInt(sectionStart, buffer.position() - sectionStart - Integer.BYTES);
+        }
+
+        void putPoints(int tag, List<Point> points) {
+            begin(tag);
+            putInt(points.size());
+            int lastX = 0, lastY = 0;
+            for (Point point : points) {
+                putInt(point.x - lastX);
+                putInt(point.y - lastY);
+                lastX = point.x;
+                lastY = point.y;
+            }
+            end();
+        }
+
+        // A zigzag varint: small numbers of either sign take one byte
+        void putInt(int value) {
+            ensure(5);
+            int zigzag = (value << 1) ^ (value >> 31);
+            while ((zigzag & ~0x7F) != 0) {
+                buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+                zigzag >>>= 7;
+            }
+            buffer.put((byte) zigzag);
+        }
+
+        void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+    }
+
+    // --- Reading ---
+
+    // Reads a save file by mapping it, rather than copying it through a stream
+    public static GameStateData read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static GameStateData read(InputStream in) throws IOException {
+        return read(ByteBuffer.wrap(in.readAllBytes()));
+    }
+
+    // Reads a save in either format, upgraded to the current one
+    public static GameStateData read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() >= 2 && buffer.getShort(buffer.position()) == (short) 0xACED) {
+            return upgrade(readLegacy(buffer), LEGACY_VERSION);
+        }
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a save file");
+            }
+            int version = buffer.get() & 0xFF;
+            if (version > VERSION) {
+                throw new IOException("Saved by a newer version of the game (save format " + version + ")");
+            }
+            GameStateData data = new GameStateData();
+            int tag;
+            while ((tag = buffer.get() & 0xFF) != END) {
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Save file is truncated");
+                }
+                // Each section is read from a view of just its own bytes
+                ByteBuffer section = buffer.slice();
+                section.limit(length);
+                readSection(tag, section, data);
+                buffer.position(buffer.position() + length);
+            }
+            return upgrade(data, version);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Save file is truncated", e);
+        }
+    }
+
+    private static void readSection(int tag, ByteBuffer in, GameStateData data) throws IOException {
+        switch (tag) {
+            case HERO:
+                data.heroX = getInt(in);
+                data.heroY = getInt(in);
+                data.heroLevel = getInt(in);
+                data.heroXP = getInt(in);
+                data.xpToNextLevel = getInt(in);
+                data.heroHealth = getInt(in);
+                data.heroMaxHealth = getInt(in);
+                data.coinCount = getInt(in);
+                data.attackLevel = getInt(in);
+                data.defenseLevel = getInt(in);
+                data.evasivenessLevel = getInt(in);
+                data.healthUpgradeLevel = getInt(in);
+                int state = getInt(in);
+                if (state < 0 || state >= World.GameState.values().length) {
+                    throw new IOException("Unknown game state " + state);
+                }
+                data.currentGameState = World.GameState.values()[state];
+                data.level20EnemiesDefeated = getInt(in);
+                data.cameraX = getInt(in);
+                data.cameraY = getInt(in);
+                break;
+            case TERRAIN:
+                data.worldWidth = getInt(in);
+                data.worldHeight = getInt(in);
+                int flags = getInt(in);
+                data.streamedTerrain = (flags & 1) != 0;
+                data.terrainFromSeed = (flags & 2) != 0;
+                data.terrainSeed = in.getLong();
+                data.rockDensity = in.getDouble();
+                data.stumpDensity = in.getDouble();
+                data.seed = in.getLong();
+                data.numRocks = getInt(in);
+                data.numStumps = getInt(in);
+                break;
+            case ENEMIES: {
+                int count = getCount(in, 6);
+                data.enemies = new ArrayList<>(count);
+                int x = 0, y = 0;
+                for (int i = 0; i < count; i++) {
+                    x += getInt(in);
+                    y += getInt(in);
+                    data.enemies.add(World.Enemy.saved(x, y, getInt(in), getInt(in), getInt(in), getInt(in)));
+                }
+                break;
+            }
+            case COINS:
+                data.coins = getPoints(in);
+                break;
+            case FOODS:
+                data.foods = getPoints(in);
+                break;
+            case ROCKS:
+                data.rocks = getPoints(in);
+                break;
+            case STUMPS:
+                data.stumps = getPoints(in);
+                break;
+            default:
+                break; // From a newer game; what this one doesn't know it can't use
+        }
+    }
+
+    private static List<Point> getPoints(ByteBuffer in) throws IOException {
+        int count = getCount(in, 2);
+        List<Point> points = new ArrayList<>(count);
+        int x = 0, y = 0;
+        for (int i = 0; i < count; i++) {
+            x += getInt(in);
+            y += getInt(in);
+            points.add(new Point(x, y));
+        }
+        return points;
+    }
+
+    // A count of entries that take at least bytesEach bytes each, so it can't claim more than is there
+    private static int getCount(ByteBuffer in, int bytesEach) throws IOException {
+        int count = getInt(in);
+        if (count < 0 || (long) count * bytesEach > in.remaining()) {
+            throw new IOException("Bad entry count " + count);
+        }
+        return count;
+    }
+
+    private static int getInt(ByteBuffer in) throws IOException {
+        int zigzag = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            zigzag |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed number");
+    }
+
+    // --- Old saves ---
+
+    private static GameStateData readLegacy(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try (ObjectInputStream in = new LegacyInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(LEGACY_FILTER);
+            Object object = in.readObject();
+            if (!(object instanceof GameStateData)) {
+                throw new IOException("Not a save file");
+            }
+            // The lists' element types aren't checked by deserialization, only that each class is allowed
+            GameStateData data = (GameStateData) object;
+            checkElements(data.enemies, World.Enemy.class);
+            for (List<?> points : Arrays.asList(data.coins, data.foods, data.rocks, data.stumps)) {
+                checkElements(points, Point.class);
+            }
+            return data;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Not a save file", e); // A class the filter rejects is an InvalidClassException already
+        } catch (RuntimeException e) {
+            // Deserialization of a corrupt stream fails in all sorts of ways
+            throw new IOException("Save file is corrupt", e);
+        }
+    }
+
+    private static void checkElements(List<?> list, Class<?> type) throws IOException {
+        if (list == null) {
+            return;
+        }
+        for (Object element : list) {
+            if (!type.isInstance(element)) {
+                throw new IOException("Unexpected " + ((element == null) ? "null" : element.getClass().getName()) + " in save");
+            }
+        }
+    }
+
+    // Reads saves written before the game rules moved out of DonkeyGamePanel,
+    // when Enemy and GameState were still nested inside the panel.
+    private static class LegacyInputStream extends ObjectInputStream {
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            switch (descriptor.getName()) {
+                case "DonkeyGamePanel$Enemy": return ObjectStreamClass.lookup(World.Enemy.class);
+                case "DonkeyGamePanel$GameState": return ObjectStreamClass.lookup(World.GameState.class);
+                default: return descriptor;
+            }
+        }
+    }
+
+    // --- Upgrading ---
+
+    /**
+     * Brings data read from an older format up to the current one, filling in what those
+     * saves didn't have, then checks the result is something the World can load.
+     */
+    private static GameStateData upgrade(GameStateData data, int version) throws IOException {
+        // Each step brings data from the versions before it to the next one, in order
+        if (version <= LEGACY_VERSION) {
+            // Enemies had no size before the boss, and the world no size of its own
+            // before bigger maps: it was always the default 5x5 screens
+            if (data.enemies != null) {
+                for (World.Enemy enemy : data.enemies) {
+                    if (enemy.size == 0) {
+                        enemy.size = World.UNIT_SIZE;
+                    }
+                }
+            }
+            if (data.worldWidth <= 0 || data.worldHeight <= 0) {
+                data.worldWidth = World.WORLD_WIDTH;
+                data.worldHeight = World.WORLD_HEIGHT;
+            }
+            if (data.currentGameState == null) {
+                data.currentGameState = World.GameState.NORMAL;
+            }
+        }
+        // Sections a save may leave out are simply empty
+        data.enemies = orEmpty(data.enemies);
+        data.coins = orEmpty(data.coins);
+        data.foods = orEmpty(data.foods);
+        data.rocks = orEmpty(data.rocks);
+        data.stumps = orEmpty(data.stumps);
+        if (data.currentGameState == null) {
+            throw new IOException("Save file has no hero");
+        }
+        check(data);
+        return data;
+    }
+
+    // Refuses anything the World couldn't hold, however the file came to say it
+    private static void check(GameStateData data) throws IOException {
+        if (data.worldWidth <= 0 || data.worldHeight <= 0 || data.worldWidth > MAX_WORLD_SIZE || data.worldHeight > MAX_WORLD_SIZE) {
+            throw new IOException("Bad world size " + data.worldWidth + "x" + data.worldHeight);
+        }
+        long tiles = (long) (data.worldWidth / World.UNIT_SIZE + 1) * (data.worldHeight / World.UNIT_SIZE + 1);
+        if (!data.streamedTerrain && tiles > MAX_CLASSIC_TILES) {
+            throw new IOException("World too big to load whole: " + data.worldWidth + "x" + data.worldHeight);
+        }
+        // Like moveHero, only the hero's corner has to be inside the world
+        if (!isInside(data.heroX, data.heroY, 1, data)) {
+            throw new IOException("Hero outside the world at " + data.heroX + "," + data.heroY);
+        }
+        // An enemy is a block of whole tiles that spawns can find room for again
+        for (World.Enemy enemy : data.enemies) {
+            int units = enemy.size / World.UNIT_SIZE;
+            if (enemy.size % World.UNIT_SIZE != 0 || units < 1 || units > World.MAX_SPAWN_UNITS) {
+                throw new IOException("Bad enemy size " + enemy.size);
+            }
+            if (!isInside(enemy.x, enemy.y, enemy.size, data)) {
+                throw new IOException("Enemy outside the world at " + enemy.x + "," + enemy.y);
+            }
+        }
+    }
+
+    // Whether a size x size block at (x, y) lies wholly inside the saved world
+    private static boolean isInside(int x, int y, int size, GameStateData data) {
+        return x >= 0 && y >= 0 && x <= data.worldWidth - size && y <= data.worldHeight - size;
+    }
+
+    private static <T> List<T> orEmpty(List<T> list) {
+        return (list != null) ? list : new ArrayList<>();
+    }
+}
@@ -0,0 +1,40 @@
+import java.util.Random;
+
+/**
+ * Runs the game rules without a window, as fast as possible.
+ * The hero wanders with random key presses, which is enough to exercise movement, combat,
+ * pickups and the boss state machine. Useful on CI servers and for timing rule changes.
+ *
+ * Usage: java -Djava.awt.headless=true [-Ddonkey.worldScreens=N] [-Ddonkey.seed=N] Simulation [ticks]
+ */
+public class Simulation {
+
+    public static void main(String[] args) {
+        int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+
+        World world = new World(World.Config.fromSystemProperties());
+        world.startGame();
+
+        World.Input input = new World.Input();
+        Random keys = new Random(world.seed); // Same seed, same run
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            // Hold a direction for a while, then pick another one
+            if (i % 30 == 0) {
+                int direction = keys.nextInt(4);
+                input.up = direction == 0;
+                input.down = direction == 1;
+                input.left = direction == 2;
+                input.right = direction == 3;
+            }
+            world.tick(input);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("Simulated %d ticks (%d s of game time) in %.1f ms: %.0f ticks/s%n",
+                ticks, world.now() / 1000, elapsed / 1e6, ticks * 1e9 / elapsed);
+        System.out.printf("Hero level %d, %d coins, game state %s, %d enemies (seed %d)%n",
+                world.heroLevel, world.coinCount, world.currentGameState, world.enemies.size(), world.seed);
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform-grid spatial hash for things with a rectangular footprint in world pixels.
+ * The world is cut into square cells and every cell an item covers is hashed into a fixed
+ * table of buckets, so an item bigger than a cell (the boss) sits in several buckets. A
+ * query only looks at the buckets under its area, which keeps lookups around O(1) no
+ * matter how many items there are.
+ *
+ * Different cells can share a bucket, so query results are candidates: callers still do
+ * their own overlap test. Items are matched by identity, and callers must remove an item
+ * with the same footprint it was inserted with.
+ *
+ * Each entry keeps the first cell of its item's footprint. A query over several cells
+ * meets an item in every one of them, and lets it through only in the first of its cells
+ * that the query covers, so nothing is added twice and no result list is searched.
+ */
+class SpatialHash<T> {
+    private final int cellSize;
+    private final int mask;
+    private final Bucket[] buckets;
+    private int size;
+
+    public SpatialHash(int cellSize, int bucketCount) {
+        if (Integer.bitCount(bucketCount) != 1) {
+            throw new IllegalArgumentException("bucketCount must be a power of two: " + bucketCount);
+        }
+        this.cellSize = cellSize;
+        this.mask = bucketCount - 1;
+        this.buckets = new Bucket[bucketCount];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void insert(T item, int x, int y, int width, int height) {
+        int firstCellX = Math.floorDiv(x, cellSize), lastCellX = Math.floorDiv(x + width - 1, cellSize);
+        int firstCellY = Math.floorDiv(y, cellSize), lastCellY = Math.floorDiv(y + height - 1, cellSize);
+        for (int cy = firstCellY; cy <= lastCellY; cy++) {
+            for (int cx = firstCellX; cx <= lastCellX; cx++) {
+                int index = bucketIndex(cx, cy);
+                Bucket bucket = buckets[index];
+                if (bucket == null) {
+                    bucket = new Bucket();
+                    buckets[index] = bucket;
+                } else if (bucket.indexOf(item) >= 0) {
+                    continue; // Two of its cells hash to the same bucket, one entry is enough
+                }
+                bucket.add(item, firstCellX, firstCellY);
+            }
+        }
+        size++;
+    }
+
+    public void remove(T item, int x, int y, int width, int height) {
+        int firstCellX = Math.floorDiv(x, cellSize), lastCellX = Math.floorDiv(x + width - 1, cellSize);
+        int firstCellY = Math.floorDiv(y, cellSize), lastCellY = Math.floorDiv(y + height - 1, cellSize);
+        for (int cy = firstCellY; cy <= lastCellY; cy++) {
+            for (int cx = firstCellX; cx <= lastCellX; cx++) {
+                Bucket bucket = buckets[bucketIndex(cx, cy)];
+                if (bucket != null) {
+                    bucket.remove(item);
+                }
+            }
+        }
+        size--;
+    }
+
+    public void clear() {
+        for (Bucket bucket : buckets) {
+            if (bucket != null) {
+                bucket.clear();
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * Adds every item that might overlap the given area to out (which is not cleared first).
+     * Each item is added at most once.
+     */
+    public void query(int x, int y, int width, int height, List<T> out) {
+        int firstCellX = Math.floorDiv(x, cellSize), lastCellX = Math.floorDiv(x + width - 1, cellSize);
+        int firstCellY = Math.floorDiv(y, cellSize), lastCellY = Math.floorDiv(y + height - 1, cellSize);
+        boolean singleCell = firstCellX == lastCellX && firstCellY == lastCellY;
+        for (int cy = firstCellY; cy <= lastCellY; cy++) {
+            for (int cx = firstCellX; cx <= lastCellX; cx++) {
+                Bucket bucket = buckets[bucketIndex(cx, cy)];
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size; i++) {
+                    // Over several cells, only take an item in the first of its cells inside the query
+                    if (singleCell || (cx == Math.max(firstCellX, bucket.firstCellX[i])
+                            && cy == Math.max(firstCellY, bucket.firstCellY[i]))) {
+                        out.add(itemAt(bucket, i));
+                    }
+                }
+            }
+        }
+    }
+
+    private int bucketIndex(int cellX, int cellY) {
+        int h = cellX * 0x9E3779B1 ^ cellY * 0x85EBCA77;
+        return (h ^ (h >>> 15)) & mask;
+    }
+
+    // Only items of type T are ever added
+    @SuppressWarnings("unchecked")
+    private T itemAt(Bucket bucket, int i) {
+        return (T) bucket.items[i];
+    }
+
+    // The entries of one bucket: each item with the first cell of its footprint
+    private static final class Bucket {
+        Object[] items = new Object[4];
+        int[] firstCellX = new int[4], firstCellY = new int[4];
+        int size;
+
+        void add(Object item, int cellX, int cellY) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+                firstCellX = Arrays.copyOf(firstCellX, size * 2);
+                firstCellY = Arrays.copyOf(firstCellY, size * 2);
+            }
+            items[size] = item;
+            firstCellX[size] = cellX;
+            firstCellY[size] = cellY;
+            size++;
+        }
+
+        int indexOf(Object item) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] == item) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void remove(Object item) {
+            int i = indexOf(item);
+            if (i >= 0) {
+                // Order within a bucket doesn't matter, so move the last entry into the hole
+                size--;
+                items[i] = items[size];
+                firstCellX[i] = firstCellX[size];
+                firstCellY[i] = firstCellY[size];
+                items[size] = null;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(items, 0, size, null);
+            size = 0;
+        }
+    }
+}
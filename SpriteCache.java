@@ -0,0 +1,126 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies of loaded images converted to the screen's own pixel format and already scaled to
+ * the device pixels they cover at the current window scale. A draw is then a 1:1 blit of a
+ * compatible (managed, so Java2D can keep it in video memory) image instead of resampling a
+ * large PNG every frame.
+ *
+ * Each image keeps a copy for the last few sizes it was drawn at. Callers clear the cache
+ * when the window is resized, and it clears itself when drawing moves to another screen.
+ * There is one shared cache for the title screen and the game, which may draw from
+ * different threads, so drawing is synchronized.
+ */
+class SpriteCache {
+    private static final SpriteCache SHARED = new SpriteCache();
+    private static final int MAX_SIZES_PER_IMAGE = 4;
+    private static final AffineTransform DEVICE_SPACE = new AffineTransform();
+
+    private final Map<Image, List<BufferedImage>> cache = new IdentityHashMap<>();
+    private GraphicsConfiguration cachedConfig;
+
+    public static SpriteCache shared() {
+        return SHARED;
+    }
+
+    // Draws the image to fill (x, y, width, height) in the current user space
+    public synchronized void draw(Graphics2D g2d, BufferedImage source, int x, int y, int width, int height) {
+        if (source == null || width <= 0 || height <= 0) {
+            return;
+        }
+        AffineTransform transform = g2d.getTransform();
+        if (transform.getShearX() != 0 || transform.getShearY() != 0 || transform.getScaleX() <= 0 || transform.getScaleY() <= 0) {
+            g2d.drawImage(source, x, y, width, height, null); // Not a plain scale, there is no single size to keep
+            return;
+        }
+        // The rectangle in device pixels. Rounding each edge (rather than the size) keeps
+        // sprites that touch in user space touching on screen.
+        int left = (int) Math.round(x * transform.getScaleX() + transform.getTranslateX());
+        int top = (int) Math.round(y * transform.getScaleY() + transform.getTranslateY());
+        int right = (int) Math.round((x + width) * transform.getScaleX() + transform.getTranslateX());
+        int bottom = (int) Math.round((y + height) * transform.getScaleY() + transform.getTranslateY());
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        BufferedImage sprite = sprite(g2d.getDeviceConfiguration(), source, right - left, bottom - top);
+        g2d.setTransform(DEVICE_SPACE);
+        g2d.drawImage(sprite, left, top, null);
+        g2d.setTransform(transform);
+    }
+
+    // Drops every copy, e.g. when the window was resized and the old sizes won't be drawn again
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    private BufferedImage sprite(GraphicsConfiguration config, BufferedImage source, int width, int height) {
+        if (config != cachedConfig) {
+            cache.clear(); // Another screen may want another pixel format
+            cachedConfig = config;
+        }
+        List<BufferedImage> sizes = cache.get(source);
+        if (sizes == null) {
+            sizes = new ArrayList<>(2);
+            cache.put(source, sizes);
+        }
+        for (int i = 0; i < sizes.size(); i++) {
+            BufferedImage sprite = sizes.get(i);
+            if (sprite.getWidth() == width && sprite.getHeight() == height) {
+                return sprite;
+            }
+        }
+        if (sizes.size() == MAX_SIZES_PER_IMAGE) {
+            sizes.remove(0);
+        }
+        BufferedImage sprite = scale(config, source, width, height);
+        sizes.add(sprite);
+        return sprite;
+    }
+
+    /**
+     * A compatible copy of source at width x height. Big reductions (the 120 pixel coin frames
+     * down to 24) go in halving steps, since a single bilinear step would skip most of the
+     * source pixels and look grainy.
+     */
+    private static BufferedImage scale(GraphicsConfiguration config, BufferedImage source, int width, int height) {
+        BufferedImage current = source;
+        int currentWidth = source.getWidth(), currentHeight = source.getHeight();
+        do {
+            int nextWidth = Math.max(width, currentWidth / 2);
+            int nextHeight = Math.max(height, currentHeight / 2);
+            if (currentWidth < width * 2 || currentHeight < height * 2) {
+                nextWidth = width;
+                nextHeight = height;
+            }
+            BufferedImage next = createImage(config, nextWidth, nextHeight, source.getTransparency());
+            Graphics2D g = next.createGraphics();
+            try {
+                if (source.getTransparency() != Transparency.OPAQUE) {
+                    g.setComposite(AlphaComposite.Src); // Keep transparent pixels transparent
+                }
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(current, 0, 0, nextWidth, nextHeight, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+            currentWidth = nextWidth;
+            currentHeight = nextHeight;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    private static BufferedImage createImage(GraphicsConfiguration config, int width, int height, int transparency) {
+        if (config != null) {
+            return config.createCompatibleImage(width, height, transparency);
+        }
+        return new BufferedImage(width, height,
+                (transparency == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+}
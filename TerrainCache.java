@@ -0,0 +1,297 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The static layer of the world (background colour plus rocks and stumps) baked into
+ * square chunk images of CHUNK_TILES x CHUNK_TILES tiles. A frame then blits the few
+ * chunks under the camera instead of drawing every obstacle one by one.
+ *
+ * Chunks are rebuilt lazily: when a snapshot arrives with a new obstacle version, only
+ * the chunks whose tiles actually changed are dropped. The least recently drawn chunks
+ * are evicted once more than MAX_CHUNKS are held. A chunk whose grid page isn't loaded in
+ * the snapshot yet (a streamed world that hasn't generated it) is drawn as bare ground and
+ * not cached, so it is baked properly once it arrives.
+ *
+ * Chunks are in world pixels, so drawing them on a scaled surface would resample every
+ * pixel of the screen each frame, which is the most expensive thing a large window draws.
+ * When the surface is only scaled and moved, the chunks are instead scaled once into tiles
+ * of TILE x TILE device pixels, kept (up to a budget) while the scale stays the same, and
+ * each frame is plain 1:1 blits of those. The tiles sit on a grid fixed to the world, drawn
+ * at a whole device pixel nearest to where the camera puts it; when the surface asks for
+ * nearest-neighbour interpolation (integer scaling) they are scaled with it too.
+ */
+class TerrainCache {
+    static final int CHUNK_TILES = OccupancyGrid.PAGE_TILES; // One grid page per chunk
+    private static final int UNIT_SIZE = World.UNIT_SIZE;
+    private static final int CHUNK_SIZE = CHUNK_TILES * UNIT_SIZE; // In world pixels
+    private static final int MAX_CHUNKS = 12;
+    private static final Color BACKGROUND = new Color(82, 100, 29);
+    private static final int TILE = 256; // Scaled tiles, in device pixels
+    private static final AffineTransform DEVICE_SPACE = new AffineTransform();
+
+    private final BufferedImage rockImage;
+    private final BufferedImage stumpImage;
+
+    // Keyed by TileMap.key(chunkX, chunkY), in access order for eviction
+    private final LinkedHashMap<Long, BufferedImage> chunks = new LinkedHashMap<>(16, 0.75f, true);
+    private OccupancyGrid bakedObstacles, bakedStumps;
+    private long bakedVersion = -1;
+    private int bakedWidth, bakedHeight;
+    private GraphicsConfiguration bakedConfig;
+
+    // Scaled tiles, keyed by TileMap.key(tileX, tileY) and in access order like the chunks.
+    // They are kept for one scale and interpolation, up to a budget in bytes of twice the
+    // largest area drawn at that scale (as 4-byte pixels), or the tiles one frame needs if
+    // that is more: about 17 MB at 1080p and 68 MB at 4K. The chunks they are scaled from
+    // come on top of that, at up to MAX_CHUNKS x 2.3 MB (about 28 MB).
+    private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private double tileScaleX, tileScaleY;
+    private Object tileInterpolation;
+    private long tileBytes, maxTileBytes;
+
+    public TerrainCache(BufferedImage rockImage, BufferedImage stumpImage) {
+        this.rockImage = rockImage;
+        this.stumpImage = stumpImage;
+    }
+
+    // Draws the terrain under the world-space rectangle [x, right) x [y, bottom), in world coordinates
+    public void draw(Graphics2D g2d, WorldSnapshot world, int x, int y, int right, int bottom) {
+        if (world.obstacleTiles == null) {
+            return;
+        }
+        GraphicsConfiguration config = g2d.getDeviceConfiguration();
+        if (config != bakedConfig) {
+            clear(); // Moved to another screen, rebuild in a format that suits it
+            bakedConfig = config;
+        }
+        if (world.worldWidth != bakedWidth || world.worldHeight != bakedHeight) {
+            clear(); // Chunks on the edges were cut to the old size
+            bakedWidth = world.worldWidth;
+            bakedHeight = world.worldHeight;
+        }
+        if (world.obstacleVersion != bakedVersion) {
+            dropChangedChunks(world.obstacleTiles, world.stumpTiles);
+            dropChangedTiles(world.obstacleTiles, world.stumpTiles);
+            bakedObstacles = world.obstacleTiles;
+            bakedStumps = world.stumpTiles;
+            bakedVersion = world.obstacleVersion;
+        }
+
+        AffineTransform transform = g2d.getTransform();
+        if (transform.getShearX() == 0 && transform.getShearY() == 0 && transform.getScaleX() > 0 && transform.getScaleY() > 0) {
+            drawTiles(g2d, transform, world, x, y, right, bottom);
+            return;
+        }
+        // Anything else gets the chunks drawn through the transform
+        int lastChunkX = (Math.min(right, world.worldWidth) - 1) / CHUNK_SIZE;
+        int lastChunkY = (Math.min(bottom, world.worldHeight) - 1) / CHUNK_SIZE;
+        for (int chunkY = Math.max(0, y) / CHUNK_SIZE; chunkY <= lastChunkY; chunkY++) {
+            for (int chunkX = Math.max(0, x) / CHUNK_SIZE; chunkX <= lastChunkX; chunkX++) {
+                drawChunk(g2d, world, chunkX, chunkY);
+            }
+        }
+    }
+
+    public void clear() {
+        chunks.clear();
+        clearTiles();
+    }
+
+    private void clearTiles() {
+        tiles.clear();
+        tileBytes = 0;
+    }
+
+    // Draws one chunk in world coordinates, baking it first if needed
+    private void drawChunk(Graphics2D g2d, WorldSnapshot world, int chunkX, int chunkY) {
+        if (!world.obstacleTiles.hasPage(chunkX, chunkY)) {
+            g2d.setColor(BACKGROUND);
+            g2d.fillRect(chunkX * CHUNK_SIZE, chunkY * CHUNK_SIZE, CHUNK_SIZE, CHUNK_SIZE);
+            return;
+        }
+        BufferedImage chunk = chunks.get(TileMap.key(chunkX, chunkY));
+        if (chunk == null) {
+            chunk = bake(bakedConfig, world, chunkX, chunkY);
+            chunks.put(TileMap.key(chunkX, chunkY), chunk);
+            evictOldChunks();
+        }
+        g2d.drawImage(chunk, chunkX * CHUNK_SIZE, chunkY * CHUNK_SIZE, null);
+    }
+
+    // --- Scaled tiles ---
+
+    private void drawTiles(Graphics2D g2d, AffineTransform transform, WorldSnapshot world, int x, int y, int right, int bottom) {
+        double scaleX = transform.getScaleX(), scaleY = transform.getScaleY();
+        Object interpolation = g2d.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        if (scaleX != tileScaleX || scaleY != tileScaleY || interpolation != tileInterpolation) {
+            clearTiles(); // A resize, or another screen density
+            maxTileBytes = 0;
+            tileScaleX = scaleX;
+            tileScaleY = scaleY;
+            tileInterpolation = interpolation;
+        }
+        // The world is (scaled) a grid of tiles starting at (0, 0), drawn moved by a whole number of pixels
+        int shiftX = (int) Math.round(transform.getTranslateX());
+        int shiftY = (int) Math.round(transform.getTranslateY());
+        int worldRight = (int) Math.ceil(world.worldWidth * scaleX), worldBottom = (int) Math.ceil(world.worldHeight * scaleY);
+        int firstTileX = Math.max(0, (int) Math.floor(x * scaleX) / TILE);
+        int firstTileY = Math.max(0, (int) Math.floor(y * scaleY) / TILE);
+        int lastTileX = (Math.min(worldRight, (int) Math.ceil(right * scaleX)) - 1) / TILE;
+        int lastTileY = (Math.min(worldBottom, (int) Math.ceil(bottom * scaleY)) - 1) / TILE;
+        long drawnBytes = 4L * (long) Math.ceil((right - x) * scaleX) * (long) Math.ceil((bottom - y) * scaleY);
+        long neededBytes = 4L * TILE * TILE * Math.max(0, lastTileX - firstTileX + 1) * Math.max(0, lastTileY - firstTileY + 1);
+        maxTileBytes = Math.max(maxTileBytes, Math.max(2 * drawnBytes, neededBytes));
+
+        g2d.setTransform(DEVICE_SPACE);
+        try {
+            for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+                for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+                    BufferedImage tile = tiles.get(TileMap.key(tileX, tileY));
+                    if (tile == null) {
+                        tile = bakeTile(world, tileX, tileY, worldRight, worldBottom);
+                    }
+                    g2d.drawImage(tile, tileX * TILE + shiftX, tileY * TILE + shiftY, null);
+                }
+            }
+        } finally {
+            g2d.setTransform(transform);
+        }
+    }
+
+    // Scales the chunks under a tile into it. The tile is kept unless part of it isn't loaded yet.
+    private BufferedImage bakeTile(WorldSnapshot world, int tileX, int tileY, int worldRight, int worldBottom) {
+        // Tiles on the right and bottom edges stop where the world does
+        int width = Math.min(TILE, worldRight - tileX * TILE);
+        int height = Math.min(TILE, worldBottom - tileY * TILE);
+        BufferedImage tile = (bakedConfig != null)
+                ? bakedConfig.createCompatibleImage(width, height, Transparency.OPAQUE)
+                : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        boolean complete = true;
+        Graphics2D g = tile.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, (tileInterpolation != null)
+                    ? tileInterpolation : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.translate(-tileX * TILE, -tileY * TILE);
+            g.scale(tileScaleX, tileScaleY);
+            int firstChunkX = chunkAt(tileX * TILE / tileScaleX), lastChunkX = chunkAt(((tileX + 1) * TILE - 1) / tileScaleX);
+            int firstChunkY = chunkAt(tileY * TILE / tileScaleY), lastChunkY = chunkAt(((tileY + 1) * TILE - 1) / tileScaleY);
+            for (int chunkY = firstChunkY; chunkY <= Math.min(lastChunkY, (world.worldHeight - 1) / CHUNK_SIZE); chunkY++) {
+                for (int chunkX = firstChunkX; chunkX <= Math.min(lastChunkX, (world.worldWidth - 1) / CHUNK_SIZE); chunkX++) {
+                    complete &= world.obstacleTiles.hasPage(chunkX, chunkY);
+                    drawChunk(g, world, chunkX, chunkY);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        if (complete) {
+            tiles.put(TileMap.key(tileX, tileY), tile);
+            tileBytes += bytesOf(tile);
+            Iterator<BufferedImage> it = tiles.values().iterator();
+            while (tileBytes > maxTileBytes && it.hasNext()) {
+                tileBytes -= bytesOf(it.next());
+                it.remove();
+            }
+        }
+        return tile;
+    }
+
+    // Drops scaled tiles over chunks whose tiles differ between the baked grids and the new ones
+    private void dropChangedTiles(OccupancyGrid obstacles, OccupancyGrid stumps) {
+        if (bakedObstacles == null) {
+            clearTiles();
+            return;
+        }
+        Iterator<Map.Entry<Long, BufferedImage>> it = tiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, BufferedImage> entry = it.next();
+            long key = entry.getKey();
+            int tileX = TileMap.column(key), tileY = TileMap.row(key);
+            int firstChunkX = chunkAt(tileX * TILE / tileScaleX), lastChunkX = chunkAt(((tileX + 1) * TILE - 1) / tileScaleX);
+            int firstChunkY = chunkAt(tileY * TILE / tileScaleY), lastChunkY = chunkAt(((tileY + 1) * TILE - 1) / tileScaleY);
+            changed:
+            for (int chunkY = firstChunkY; chunkY <= lastChunkY; chunkY++) {
+                for (int chunkX = firstChunkX; chunkX <= lastChunkX; chunkX++) {
+                    if (!obstacles.samePage(bakedObstacles, chunkX, chunkY) || !stumps.samePage(bakedStumps, chunkX, chunkY)) {
+                        tileBytes -= bytesOf(entry.getValue());
+                        it.remove();
+                        break changed;
+                    }
+                }
+            }
+        }
+    }
+
+    // What a tile is counted as against the budget: 4 bytes a pixel, whatever its format
+    private static long bytesOf(BufferedImage tile) {
+        return 4L * tile.getWidth() * tile.getHeight();
+    }
+
+    private static int chunkAt(double worldCoordinate) {
+        return (int) Math.floor(worldCoordinate) / CHUNK_SIZE;
+    }
+
+    private BufferedImage bake(GraphicsConfiguration config, WorldSnapshot world, int chunkX, int chunkY) {
+        int left = chunkX * CHUNK_SIZE;
+        int top = chunkY * CHUNK_SIZE;
+        // Chunks on the right and bottom edges stop where the world does
+        int width = Math.min(CHUNK_SIZE, world.worldWidth - left);
+        int height = Math.min(CHUNK_SIZE, world.worldHeight - top);
+        BufferedImage chunk = (config != null)
+                ? config.createCompatibleImage(width, height, Transparency.OPAQUE)
+                : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D g = chunk.createGraphics();
+        try {
+            g.setColor(BACKGROUND);
+            g.fillRect(0, 0, width, height);
+            // Baking happens once per chunk, so it can afford the better filter
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            int firstColumn = chunkX * CHUNK_TILES;
+            int firstRow = chunkY * CHUNK_TILES;
+            for (int row = firstRow; row < firstRow + CHUNK_TILES; row++) {
+                for (int column = firstColumn; column < firstColumn + CHUNK_TILES; column++) {
+                    if (!world.obstacleTiles.get(column, row)) {
+                        continue;
+                    }
+                    BufferedImage image = world.stumpTiles.get(column, row) ? stumpImage : rockImage;
+                    if (image != null) {
+                        g.drawImage(image, column * UNIT_SIZE - left, row * UNIT_SIZE - top, UNIT_SIZE, UNIT_SIZE, null);
+                    }
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return chunk;
+    }
+
+    // Drops cached chunks whose tiles differ between the baked grids and the new ones
+    private void dropChangedChunks(OccupancyGrid obstacles, OccupancyGrid stumps) {
+        if (bakedObstacles == null) {
+            chunks.clear();
+            return;
+        }
+        Iterator<Map.Entry<Long, BufferedImage>> it = chunks.entrySet().iterator();
+        while (it.hasNext()) {
+            long key = it.next().getKey();
+            int chunkX = TileMap.column(key);
+            int chunkY = TileMap.row(key);
+            if (!obstacles.samePage(bakedObstacles, chunkX, chunkY) || !stumps.samePage(bakedStumps, chunkX, chunkY)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evictOldChunks() {
+        Iterator<BufferedImage> it = chunks.values().iterator();
+        while (chunks.size() > MAX_CHUNKS && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.Arrays;
+
+/**
+ * Map from a tile (column, row) to one value, keyed by the two coordinates packed into a long.
+ * Open addressing with linear probing over plain arrays, so lookups don't box keys or
+ * allocate, and deletes shift later entries back instead of leaving tombstones.
+ * Null values are not allowed; an empty slot is a slot with a null value.
+ */
+class TileMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    // Called for each entry by forEach
+    public interface Visitor<V> {
+        void visit(long key, V value);
+    }
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public TileMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public TileMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    // Packs a tile position into a key
+    public static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    public static int column(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int row(long key) {
+        return (int) key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    // Stores value under key and returns whatever was there before (or null)
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("TileMap does not hold null values");
+        }
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > values.length) {
+            resize(values.length * 2);
+        }
+        return null;
+    }
+
+    // Removes key and returns its value (or null if it wasn't there)
+    public V remove(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                @SuppressWarnings("unchecked")
+                V removed = (V) values[i];
+                deleteSlot(i);
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    // Removes key only if it currently maps to this exact object
+    public boolean remove(long key, V value) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                if (values[i] != value) {
+                    return false;
+                }
+                deleteSlot(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Visits every entry in no particular order. The map must not be changed while this runs.
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<V> visitor) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                visitor.visit(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    // Empties slot i and moves later entries of the same probe run back into the gap
+    private void deleteSlot(int i) {
+        int gap = i;
+        for (int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            // Move j into the gap unless its home lies cyclically in (gap, j]
+            boolean stays = (gap <= j) ? (gap < home && home <= j) : (gap < home || home <= j);
+            if (!stays) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
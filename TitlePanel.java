@@ -1,12 +1,15 @@
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 
 public class TitlePanel extends JPanel {
     private DonkeyGame game;
     private BufferedImage backgroundImage;
+    private final SpriteCache sprites = SpriteCache.shared();
 
     public TitlePanel(DonkeyGame game) {
         this.game = game;
@@ -19,6 +22,14 @@ public class TitlePanel extends JPanel {
             System.err.println("Could not load title background image!");
     
         }
+        // A resized panel won't draw the background at the old size again
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                sprites.clear();
+            }
+        });
+
         setLayout(new GridBagLayout()); // Use a flexible layout
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.gridwidth = GridBagConstraints.REMAINDER;
@@ -67,10 +78,9 @@ public class TitlePanel extends JPanel {
     protected void paintComponent(Graphics g) {
         super.paintComponent(g); // Always call the superclass method first
         
-        // Draw the background image, scaling it to fill the entire panel
-        if (backgroundImage != null) {
-            g.drawImage(backgroundImage, 0, 0, this.getWidth(), this.getHeight(), null);
-        }
+        // Draw the background image, scaled to fill the entire panel. The cache scales it
+        // once per panel size rather than on every paint.
+        sprites.draw((Graphics2D) g, backgroundImage, 0, 0, this.getWidth(), this.getHeight());
 
         // Create a white color with an alpha value (0-255) for transparency.
         // A lower number is more transparent.
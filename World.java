@@ -0,0 +1,1476 @@
+import java.awt.Point;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * All of the game rules and world state, with no Swing or image dependencies.
+ * The simulation advances one fixed tick at a time through tick(input), so it can run
+ * headless (java.awt.headless=true) as fast as the CPU allows. DonkeyGamePanel only
+ * draws this state and forwards keyboard input to it.
+ *
+ * Only the thread that calls tick may touch the world. Other threads (the EDT, save
+ * loaders) hand work to it with submit, and read it through snapshots taken with capture.
+ */
+class World {
+    // Game constants
+    public static final int NATIVE_SCREEN_WIDTH = 854;
+    public static final int NATIVE_SCREEN_HEIGHT = 480;
+    public static final int UNIT_SIZE = 48;
+
+    // World dimensions
+    public static final int WORLD_WIDTH = NATIVE_SCREEN_WIDTH * 5;
+    public static final int WORLD_HEIGHT = NATIVE_SCREEN_HEIGHT * 5;
+
+    // Simulation rate. All timers below run on simulated time, not the wall clock.
+    public static final int TICKS_PER_SECOND = 60;
+
+    // Object counts
+    static final int NUM_ROCKS = 75;
+    static final int NUM_STUMPS = 55;
+    static final int NUM_ENEMIES = 4;
+    static final int NUM_COINS = 5;
+    static final int NUM_FOODS = 5;
+
+    // How far outside the screen (or the area asked for) capture still copies entities, in pixels
+    static final int VIEW_MARGIN = UNIT_SIZE * 2;
+
+    // Largest block (in tiles per side) that spawns can ask for a free place for
+    static final int MAX_SPAWN_UNITS = 4;
+
+    // Streamed terrain is generated and dropped in chunks of one grid page each
+    static final int CHUNK_TILES = OccupancyGrid.PAGE_TILES;
+    private static final int CHUNK_SHIFT = OccupancyGrid.PAGE_SHIFT;
+    private static final int CHUNK_SIZE = CHUNK_TILES * UNIT_SIZE; // In pixels
+
+    // Side of one enemy index cell, in pixels (the boss covers two or three cells per side)
+    private static final int ENEMY_CELL_SIZE = UNIT_SIZE * 2;
+
+    // Coin animation
+    static final int COIN_FRAME_COUNT = 8;
+    private static final long COIN_FRAME_DURATION = 100; // Duration for each coin frame in milliseconds
+
+    private static final long MESSAGE_DURATION = 3000;
+    private static final int MAX_MESSAGES = 16; // On screen at once; the oldest goes first
+    private static final int BASE_MOVE_COOLDOWN = 150;
+
+    // Costs for levels 2, 3, 4, and 5. Level 1 is the base
+    private static final int[] UPGRADE_COSTS = {3, 8, 15, 25};
+
+    // Game State Management
+    public enum GameState {
+        NORMAL,
+        BOSS_FIGHT_PENDING,
+        BOSS_FIGHT_ACTIVE,
+        POST_BOSS
+    }
+
+    // Size of the world and how much is in it. The defaults are the normal 5x5-screen game.
+    public static class Config {
+        public int worldWidth = WORLD_WIDTH;
+        public int worldHeight = WORLD_HEIGHT;
+        public int numRocks = NUM_ROCKS;
+        public int numStumps = NUM_STUMPS;
+        public int numEnemies = NUM_ENEMIES;
+        public int numCoins = NUM_COINS;
+        public int numFoods = NUM_FOODS;
+        // Generate terrain chunk by chunk around the camera instead of all at once. The
+        // rock and stump counts then set how dense the terrain is rather than exact totals.
+        public boolean streamTerrain = false;
+        public int streamRadius = 2; // Chunks kept loaded on each side of the camera's chunk
+        public int maxLoadedChunks = 256; // Loaded chunks beyond this are dropped, farthest first
+        public long seed = new Random().nextLong(); // Seed of the first game
+
+        // The default game, or a bigger streamed world when -Ddonkey.worldScreens=N asks for
+        // one that is N screens each way (with the same obstacle density as the default).
+        // -Ddonkey.seed=N replays the world of a given seed.
+        public static Config fromSystemProperties() {
+            Config config = new Config();
+            config.seed = Long.getLong("donkey.seed", config.seed);
+            int screens = Integer.getInteger("donkey.worldScreens", 5);
+            if (screens > 5) {
+                config.worldWidth = NATIVE_SCREEN_WIDTH * screens;
+                config.worldHeight = NATIVE_SCREEN_HEIGHT * screens;
+                config.numRocks = (int) ((long) NUM_ROCKS * screens * screens / 25);
+                config.numStumps = (int) ((long) NUM_STUMPS * screens * screens / 25);
+                config.streamTerrain = true;
+            }
+            return config;
+        }
+    }
+
+    // Keys held down during a tick
+    public static class Input {
+        public volatile boolean up, down, left, right;
+    }
+
+    final Config config;
+    // Set from the config, or from a save (which may come from a world of another size)
+    int worldWidth, worldHeight;
+
+    // Simulation clock
+    private long tickCount = 0;
+
+    // Animation state
+    double bouncePhase = 0.0; // Phase for the bouncing food animation
+    int currentCoinFrame = 0;
+    private long lastFrameUpdateTime = 0;
+
+    // Hero stats
+    int heroLevel;
+    int heroXP;
+    int xpToNextLevel;
+    int heroX, heroY;
+    int heroHealth;
+    int heroMaxHealth;
+    int coinCount;
+
+    private long lastMoveTime = Long.MIN_VALUE / 2;
+
+    // Upgrade and Power-Up Stats
+    int attackLevel;
+    int defenseLevel;
+    int evasivenessLevel;
+    int healthUpgradeLevel;
+
+    long critBoostEndTime = 0;
+    long speedBoostEndTime = 0;
+    long shieldBoostEndTime = 0;
+
+    // Camera position
+    int cameraX, cameraY;
+
+    // Game objects and state
+
+    // Each game is made from one seed. Terrain, pickups, enemies and combat draw from streams
+    // of their own, so that one more dodge roll doesn't change where the next coin appears.
+    long seed;
+    private long nextSeed; // Seed of the next startGame
+    final Random terrainRandom = new Random();
+    final Random pickupRandom = new Random();
+    final Random enemyRandom = new Random();
+    final Random combatRandom = new Random();
+    // True while the rocks and stumps are exactly what the seed generates, so saves can leave them out
+    private boolean terrainFromSeed;
+    // Rocks and stumps live only in these grids, and are only changed through addRock/addStump,
+    // clearObstacles and the chunk loading below, which keep the counts and free areas in step.
+    // A classic world keeps every page of the grids loaded. A streamed world loads the chunks
+    // (one grid page each) near the camera, generated from terrainSeed and the chunk position,
+    // and drops far ones: a dropped chunk comes back the same when it is generated again.
+    final OccupancyGrid obstacleGrid = new OccupancyGrid();
+    final OccupancyGrid stumpGrid = new OccupancyGrid(); // Which of the obstacle tiles are stumps (the rest are rocks)
+    int rockCount, stumpCount; // In the loaded part of the world
+    boolean streamTerrain;
+    long terrainSeed;
+    double rockDensity, stumpDensity; // Chance of a streamed tile being a rock or a stump
+    private long streamedAround = Long.MIN_VALUE; // Chunk the camera was in when chunks were last streamed
+    // Obstacle-free places for each block size in tiles (1 for most things, 3 for the boss), made on first use
+    private final FreeAreaIndex[] freeAreas = new FreeAreaIndex[MAX_SPAWN_UNITS + 1];
+    // Enemies are only added or removed through addEnemy/removeEnemy/clearEnemies, and only
+    // moved through Enemy.placeAt, which keep enemyIndex in step with them
+    List<Enemy> enemies = new ArrayList<>();
+    final SpatialHash<Enemy> enemyIndex = new SpatialHash<>(ENEMY_CELL_SIZE, 4096);
+    private final List<Enemy> nearbyEnemies = new ArrayList<>(); // Reused for collision queries
+    final MessageRing activeMessages = new MessageRing(MAX_MESSAGES);
+    // At most one coin and one food per tile. Pickups are placed and moved through
+    // teleportCoin/teleportFood, which keep coinIndex/foodIndex keyed by their tile
+    List<Point> coins = new ArrayList<>();
+    List<Point> foods = new ArrayList<>();
+    final TileMap<Point> coinIndex = new TileMap<>();
+    final TileMap<Point> foodIndex = new TileMap<>();
+    // Overview of the whole world, told about every change to the terrain and the indexes above
+    final Minimap minimap = new Minimap();
+
+    GameState currentGameState = GameState.NORMAL;
+    int level20EnemiesDefeated;
+
+    // For autosaves: games started or loaded so far, and moments worth saving at (level ups and
+    // boss defeats). Both only ever go up.
+    int games;
+    int milestones;
+
+    // Screen shake (the renderer decides what a shake looks like)
+    private long shakeEndTime = 0;
+
+    // Bumped whenever rocks or stumps change, so snapshots know when to copy them again
+    private long obstacleVersion = 0;
+
+    // Read-only copies of the obstacle grids handed to snapshots, replaced when obstacleVersion moves on
+    private OccupancyGrid publishedObstacles, publishedStumps;
+    private long publishedObstacleVersion = -1;
+    private final List<Enemy> visibleEnemies = new ArrayList<>(); // Reused by capture
+
+    // Work from other threads, run at the start of the next tick
+    private final Queue<Consumer<World>> commands = new ConcurrentLinkedQueue<>();
+
+    public World() {
+        this(new Config());
+    }
+
+    public World(Config config) {
+        this.config = config;
+        this.nextSeed = config.seed;
+        seedStreams(config.seed);
+        setTerrain(config.worldWidth, config.worldHeight, config.streamTerrain, 0);
+    }
+
+    // Current simulated time in milliseconds
+    public long now() {
+        return tickCount * 1000 / TICKS_PER_SECOND;
+    }
+
+    public boolean isShaking() {
+        return now() < shakeEndTime;
+    }
+
+    public boolean isShieldActive() {
+        return now() < shieldBoostEndTime;
+    }
+
+    // --- Game State Methods ---
+
+    // Starts a new game from the next seed (the configured one for the first game)
+    public void startGame() {
+        startGame(nextSeed);
+    }
+
+    public void startGame(long seed) {
+        this.seed = seed;
+        this.nextSeed = streamSeed(seed, 0);
+        seedStreams(seed);
+        activeMessages.clear();
+        clearObstacles();
+        clearEnemies();
+        coins.clear();
+        foods.clear();
+        coinIndex.clear();
+        foodIndex.clear();
+        minimap.cleared(Minimap.COIN);
+        minimap.cleared(Minimap.FOOD);
+
+        // Start near the middle of the first screen. The camera goes there first so that a
+        // streamed world generates the chunks around the start, where pickups and enemies appear.
+        heroX = (NATIVE_SCREEN_WIDTH / 2 / UNIT_SIZE) * UNIT_SIZE;
+        heroY = (NATIVE_SCREEN_HEIGHT / 2 / UNIT_SIZE) * UNIT_SIZE;
+        updateCamera();
+        generateObstacles();
+        terrainFromSeed = true;
+
+        // Generate coins
+        for (int i = 0; i < config.numCoins; i++) {
+            Point coin = new Point();
+            teleportCoin(coin);
+            coins.add(coin);
+        }
+
+        // Generate foods
+        for (int i = 0; i < config.numFoods; i++) {
+            Point food = new Point();
+            teleportFood(food);
+            foods.add(food);
+        }
+
+        for (int i = 0; i < config.numEnemies; i++) {
+            addEnemy(new Enemy(this));
+        }
+
+        // Step along to the next free tile if the start is blocked
+        long tiles = (long) columns() * rows();
+        for (long i = 0; i < tiles && isObstacle(heroX, heroY); i++) {
+            heroX += UNIT_SIZE;
+            if (heroX / UNIT_SIZE >= columns()) {
+                heroX = 0;
+                heroY = (heroY + UNIT_SIZE) % (rows() * UNIT_SIZE);
+            }
+        }
+
+        this.heroLevel = 1;
+        this.heroXP = 0;
+        this.xpToNextLevel = 100;
+        this.heroMaxHealth = 10;
+        this.heroHealth = this.heroMaxHealth;
+        this.coinCount = 0;
+        this.attackLevel = 1;
+        this.defenseLevel = 1;
+        this.evasivenessLevel = 1;
+        this.healthUpgradeLevel = 1;
+        this.currentGameState = GameState.NORMAL;
+        this.level20EnemiesDefeated = 0;
+        games++;
+
+        updateCamera();
+        streamChunks();
+    }
+
+    // Restarts every random stream from a game seed
+    private void seedStreams(long seed) {
+        terrainRandom.setSeed(streamSeed(seed, 1));
+        pickupRandom.setSeed(streamSeed(seed, 2));
+        enemyRandom.setSeed(streamSeed(seed, 3));
+        combatRandom.setSeed(streamSeed(seed, 4));
+    }
+
+    // A seed for one stream, well mixed so that neighbouring game seeds give unrelated streams
+    private static long streamSeed(long seed, int stream) {
+        return new SplittableRandom(seed + stream * 0x9E3779B97F4A7C15L).nextLong();
+    }
+
+    // Copies the saveable state into a new data object
+    public GameStateData toSaveData() {
+        GameStateData data = new GameStateData();
+        data.heroX = this.heroX;
+        data.heroY = this.heroY;
+        data.heroLevel = this.heroLevel;
+        data.heroXP = this.heroXP;
+        data.xpToNextLevel = this.xpToNextLevel;
+        data.heroHealth = this.heroHealth;
+        data.heroMaxHealth = this.heroMaxHealth;
+        data.coinCount = this.coinCount;
+        // Copies, so the save can be written on another thread while the game keeps running
+        data.enemies = new ArrayList<>();
+        for (Enemy enemy : this.enemies) {
+            data.enemies.add(enemy.copy());
+        }
+        data.worldWidth = this.worldWidth;
+        data.worldHeight = this.worldHeight;
+        data.streamedTerrain = this.streamTerrain;
+        data.terrainSeed = this.terrainSeed;
+        data.rockDensity = this.rockDensity;
+        data.stumpDensity = this.stumpDensity;
+        data.seed = this.seed;
+        data.terrainFromSeed = this.terrainFromSeed;
+        data.numRocks = config.numRocks;
+        data.numStumps = config.numStumps;
+        // Terrain that the seed generates is made again on loading, so only other terrain is listed
+        data.rocks = new ArrayList<>();
+        data.stumps = new ArrayList<>();
+        if (!streamTerrain && !terrainFromSeed) {
+            listObstacles(data.rocks, data.stumps);
+        }
+        data.coins = copyPoints(this.coins);
+        data.foods = copyPoints(this.foods);
+        data.attackLevel = this.attackLevel;
+        data.defenseLevel = this.defenseLevel;
+        data.evasivenessLevel = this.evasivenessLevel;
+        data.healthUpgradeLevel = this.healthUpgradeLevel;
+        data.currentGameState = this.currentGameState;
+        data.level20EnemiesDefeated = this.level20EnemiesDefeated;
+        data.cameraX = this.cameraX;
+        data.cameraY = this.cameraY;
+        return data;
+    }
+
+    private static List<Point> copyPoints(List<Point> points) {
+        List<Point> copy = new ArrayList<>(points.size());
+        for (Point point : points) {
+            copy.add(new Point(point));
+        }
+        return copy;
+    }
+
+    // Replaces the world state with loaded data (as read by GameStateData.readFrom, which fills
+    // in whatever older saves didn't have)
+    public void applySaveData(GameStateData data) {
+        this.heroX = data.heroX;
+        this.heroY = data.heroY;
+        this.heroLevel = data.heroLevel;
+        this.heroXP = data.heroXP;
+        this.xpToNextLevel = data.xpToNextLevel;
+        this.heroHealth = data.heroHealth;
+        this.heroMaxHealth = data.heroMaxHealth;
+        this.coinCount = data.coinCount;
+
+        this.enemies = data.enemies;
+        this.coins = data.coins;
+        this.foods = data.foods;
+
+        this.attackLevel = data.attackLevel;
+        this.defenseLevel = data.defenseLevel;
+        this.evasivenessLevel = data.evasivenessLevel;
+        this.healthUpgradeLevel = data.healthUpgradeLevel;
+        this.currentGameState = data.currentGameState;
+        this.level20EnemiesDefeated = data.level20EnemiesDefeated;
+        games++;
+        this.cameraX = data.cameraX;
+        this.cameraY = data.cameraY;
+
+        // Reconnect transient fields (setTerrain below puts the enemies on the minimap)
+        enemyIndex.clear();
+        for (Enemy enemy : enemies) {
+            enemy.world = this;
+            enemyIndex.insert(enemy, enemy.x, enemy.y, enemy.size, enemy.size);
+            enemy.indexed = true;
+        }
+
+        activeMessages.clear();
+        // Random streams carry on as if the saved game had just started from its seed
+        this.seed = data.seed;
+        this.nextSeed = streamSeed(seed, 0);
+        seedStreams(seed);
+        setTerrain(data.worldWidth, data.worldHeight, data.streamedTerrain, data.terrainSeed);
+        if (streamTerrain) {
+            // The same densities as when it was saved, or the chunks would come out differently
+            rockDensity = data.rockDensity;
+            stumpDensity = data.stumpDensity;
+        } else if (data.terrainFromSeed) {
+            generateObstacles(data.numRocks, data.numStumps);
+        } else {
+            placeObstacles(data.rocks, data.stumps);
+        }
+        terrainFromSeed = data.terrainFromSeed;
+        updateCamera();
+        streamChunks();
+        // Only now that this world's terrain and random streams are in place, since stacked
+        // pickups from older saves are moved onto its free tiles
+        rebuildPickupIndex(coins, coinIndex);
+        rebuildPickupIndex(foods, foodIndex);
+    }
+
+    // --- Simulation ---
+
+    // Queues work from another thread (market purchases, loads, saves) to run on the next tick
+    public void submit(Consumer<World> command) {
+        commands.add(command);
+    }
+
+    private void runCommands() {
+        Consumer<World> command;
+        while ((command = commands.poll()) != null) {
+            command.accept(this);
+        }
+    }
+
+    /**
+     * Copies what the renderer needs into a snapshot. Only entities near the camera are
+     * copied (found through the spatial indexes, not by filtering every list), so the
+     * cost follows what is on screen rather than the size of the world.
+     */
+    public void capture(WorldSnapshot s) {
+        // The area worth drawing: the screen plus a margin for shake, bounce and enemy health bars
+        captureArea(s, cameraX - VIEW_MARGIN, cameraY - VIEW_MARGIN,
+                NATIVE_SCREEN_WIDTH + 2 * VIEW_MARGIN, NATIVE_SCREEN_HEIGHT + 2 * VIEW_MARGIN);
+    }
+
+    // Like capture, but with the entities in the given area of the world rather than around the camera
+    public void captureArea(WorldSnapshot s, int viewX, int viewY, int viewWidth, int viewHeight) {
+        s.worldWidth = worldWidth;
+        s.worldHeight = worldHeight;
+        s.cameraX = cameraX;
+        s.cameraY = cameraY;
+        s.time = now();
+
+        s.heroX = heroX;
+        s.heroY = heroY;
+        s.heroLevel = heroLevel;
+        s.heroXP = heroXP;
+        s.xpToNextLevel = xpToNextLevel;
+        s.heroHealth = heroHealth;
+        s.heroMaxHealth = heroMaxHealth;
+        s.coinCount = coinCount;
+        s.shieldActive = isShieldActive();
+
+        s.gameState = currentGameState;
+        s.level20EnemiesDefeated = level20EnemiesDefeated;
+        s.shaking = isShaking();
+
+        s.bouncePhase = bouncePhase;
+        s.coinFrame = currentCoinFrame;
+
+        if (publishedObstacleVersion != obstacleVersion) {
+            publishedObstacles = obstacleGrid.copy();
+            publishedStumps = stumpGrid.copy();
+            publishedObstacleVersion = obstacleVersion;
+        }
+        s.obstacleVersion = publishedObstacleVersion;
+        s.obstacleTiles = publishedObstacles;
+        s.stumpTiles = publishedStumps;
+        s.rockCount = rockCount;
+        s.stumpCount = stumpCount;
+        s.loadedChunks = obstacleGrid.pageCount();
+        s.seed = seed;
+
+        s.enemyTotal = enemies.size();
+        visibleEnemies.clear();
+        enemyIndex.query(viewX, viewY, viewWidth, viewHeight, visibleEnemies);
+        int n = 0;
+        int capacity = visibleEnemies.size();
+        s.enemyX = WorldSnapshot.ensure(s.enemyX, capacity);
+        s.enemyY = WorldSnapshot.ensure(s.enemyY, capacity);
+        s.enemySize = WorldSnapshot.ensure(s.enemySize, capacity);
+        s.enemyLevel = WorldSnapshot.ensure(s.enemyLevel, capacity);
+        s.enemyHealth = WorldSnapshot.ensure(s.enemyHealth, capacity);
+        s.enemyMaxHealth = WorldSnapshot.ensure(s.enemyMaxHealth, capacity);
+        for (int i = 0; i < capacity; i++) {
+            Enemy enemy = visibleEnemies.get(i);
+            // The index returns candidates from shared buckets, keep only those really in view
+            if (enemy.x >= viewX + viewWidth || enemy.x + enemy.size <= viewX
+                    || enemy.y >= viewY + viewHeight || enemy.y + enemy.size <= viewY) {
+                continue;
+            }
+            s.enemyX[n] = enemy.x;
+            s.enemyY[n] = enemy.y;
+            s.enemySize[n] = enemy.size;
+            s.enemyLevel[n] = enemy.level;
+            s.enemyHealth[n] = enemy.currentHealth;
+            s.enemyMaxHealth[n] = enemy.maxHealth;
+            n++;
+        }
+        s.enemyCount = n;
+
+        // Pickups are one per tile, so look up each tile in view
+        int firstColumn = Math.floorDiv(viewX, UNIT_SIZE);
+        int lastColumn = Math.floorDiv(viewX + viewWidth - 1, UNIT_SIZE);
+        int firstRow = Math.floorDiv(viewY, UNIT_SIZE);
+        int lastRow = Math.floorDiv(viewY + viewHeight - 1, UNIT_SIZE);
+        int viewTiles = (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1);
+
+        s.coinTotal = coins.size();
+        s.foodTotal = foods.size();
+        s.coinX = WorldSnapshot.ensure(s.coinX, Math.min(viewTiles, coins.size()));
+        s.coinY = WorldSnapshot.ensure(s.coinY, Math.min(viewTiles, coins.size()));
+        s.foodX = WorldSnapshot.ensure(s.foodX, Math.min(viewTiles, foods.size()));
+        s.foodY = WorldSnapshot.ensure(s.foodY, Math.min(viewTiles, foods.size()));
+        int coinsInView = 0, foodsInView = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long key = TileMap.key(column, row);
+                Point coin = coinIndex.get(key);
+                if (coin != null) {
+                    s.coinX[coinsInView] = coin.x;
+                    s.coinY[coinsInView] = coin.y;
+                    coinsInView++;
+                }
+                Point food = foodIndex.get(key);
+                if (food != null) {
+                    s.foodX[foodsInView] = food.x;
+                    s.foodY[foodsInView] = food.y;
+                    foodsInView++;
+                }
+            }
+        }
+        s.coinCountOnMap = coinsInView;
+        s.foodCount = foodsInView;
+
+        if (s.minimapVersion != minimap.version()) {
+            // Bounded by the size of the map, however big the world or however many entities
+            s.minimapWidth = minimap.width();
+            s.minimapHeight = minimap.height();
+            s.minimapTilesPerCell = minimap.tilesPerCell();
+            s.minimapPixels = WorldSnapshot.ensure(s.minimapPixels, minimap.pixels().length);
+            System.arraycopy(minimap.pixels(), 0, s.minimapPixels, 0, minimap.pixels().length);
+            s.minimapVersion = minimap.version();
+        }
+
+        s.messageCount = activeMessages.size();
+        s.ensureMessages(s.messageCount);
+        for (int i = 0; i < s.messageCount; i++) {
+            s.messageLength[i] = activeMessages.length(i);
+            System.arraycopy(activeMessages.text(i), 0, s.messageText[i], 0, s.messageLength[i]);
+        }
+    }
+
+    // Advances the world by one fixed tick
+    public void tick(Input input) {
+        runCommands();
+        tickCount++;
+        long now = now();
+
+        updateAnimation(now);
+        bouncePhase += 0.1;
+
+        // --- Handle hero movement based on held keys and speed ---
+        int currentMoveCooldown = (now < speedBoostEndTime) ? BASE_MOVE_COOLDOWN / 2 : BASE_MOVE_COOLDOWN;
+        if (now - lastMoveTime > currentMoveCooldown) {
+            if (input.up) moveHero('U');
+            else if (input.down) moveHero('D');
+            else if (input.left) moveHero('L');
+            else if (input.right) moveHero('R');
+
+            // If any move was made, reset the timer and check for collisions
+            if (input.up || input.down || input.left || input.right) {
+                lastMoveTime = now;
+                checkCollisions();
+                updateCamera();
+                streamChunks();
+            }
+        }
+
+        // --- Check for expired power-ups ---
+        if (critBoostEndTime > 0 && now > critBoostEndTime) {
+            critBoostEndTime = 0;
+            displayMessage("Critical Boost wore off!");
+        }
+        if (speedBoostEndTime > 0 && now > speedBoostEndTime) {
+            speedBoostEndTime = 0;
+            displayMessage("Speed Boost wore off!");
+        }
+        if (shieldBoostEndTime > 0 && now > shieldBoostEndTime) {
+            shieldBoostEndTime = 0;
+            displayMessage("Shield wore off!");
+        }
+
+        // --- Boss Spawn Logic ---
+        // Check if it's time to start the boss sequence ---
+        if (currentGameState == GameState.BOSS_FIGHT_PENDING) {
+            triggerBossSequence();
+        }
+
+        // Drop messages that have been on screen long enough
+        activeMessages.expire(now);
+    }
+
+    // For the animation of the coin sprite
+    private void updateAnimation(long now) {
+        // Check if enough time has passed to show the next frame
+        if (now - lastFrameUpdateTime > COIN_FRAME_DURATION) {
+            currentCoinFrame++; // Move to the next frame
+            if (currentCoinFrame >= COIN_FRAME_COUNT) {
+                currentCoinFrame = 0; // Loop back to the first frame
+            }
+            lastFrameUpdateTime = now; // Reset the timer
+        }
+    }
+
+    // --- Game Logic Methods ---
+
+    void teleportFood(Point food) {
+        teleportPickup(food, foodIndex);
+    }
+
+    void teleportCoin(Point coin) {
+        teleportPickup(coin, coinIndex);
+    }
+
+    // Moves a pickup to a random free tile (no obstacle, no hero, no pickup of the same kind).
+    // If the world has no such tile left, the pickup stays where it is.
+    private void teleportPickup(Point pickup, TileMap<Point> index) {
+        int kind = (index == coinIndex) ? Minimap.COIN : Minimap.FOOD;
+        if (index.remove(tileKey(pickup.x, pickup.y), pickup)) {
+            minimap.removed(kind, pickup.x, pickup.y, UNIT_SIZE);
+        }
+        int heroColumn = Math.floorDiv(heroX, UNIT_SIZE);
+        int heroRow = Math.floorDiv(heroY, UNIT_SIZE);
+        long place = freeAreas(1).pick(pickupRandom, (column, row) ->
+                !(column == heroColumn && row == heroRow) && !index.containsKey(TileMap.key(column, row)));
+        if (place != FreeAreaIndex.NONE) {
+            pickup.setLocation(TileMap.column(place) * UNIT_SIZE, TileMap.row(place) * UNIT_SIZE);
+        }
+        if (!index.containsKey(tileKey(pickup.x, pickup.y))) {
+            index.put(tileKey(pickup.x, pickup.y), pickup);
+            minimap.added(kind, pickup.x, pickup.y, UNIT_SIZE);
+        }
+    }
+
+    // Refills a pickup index after loading. Older saves could stack pickups on one tile, those are moved apart.
+    private void rebuildPickupIndex(List<Point> pickups, TileMap<Point> index) {
+        int kind = (index == coinIndex) ? Minimap.COIN : Minimap.FOOD;
+        index.clear();
+        minimap.cleared(kind);
+        for (Point pickup : pickups) {
+            if (index.containsKey(tileKey(pickup.x, pickup.y))) {
+                teleportPickup(pickup, index);
+            } else {
+                index.put(tileKey(pickup.x, pickup.y), pickup);
+                minimap.added(kind, pickup.x, pickup.y, UNIT_SIZE);
+            }
+        }
+    }
+
+    static long tileKey(int x, int y) {
+        return TileMap.key(Math.floorDiv(x, UNIT_SIZE), Math.floorDiv(y, UNIT_SIZE));
+    }
+
+    // Scatters the configured rocks and stumps over free tiles (stops early if the world fills up).
+    // A streamed world makes its terrain chunk by chunk instead, starting with the chunks around the camera.
+    void generateObstacles() {
+        if (streamTerrain) {
+            streamChunks();
+            return;
+        }
+        generateObstacles(config.numRocks, config.numStumps);
+    }
+
+    private void generateObstacles(int numRocks, int numStumps) {
+        FreeAreaIndex freeTiles = freeAreas(1);
+        for (int i = 0; i < numRocks; i++) {
+            long place = freeTiles.pick(terrainRandom, null);
+            if (place == FreeAreaIndex.NONE) {
+                return;
+            }
+            addRock(TileMap.column(place) * UNIT_SIZE, TileMap.row(place) * UNIT_SIZE);
+        }
+        for (int i = 0; i < numStumps; i++) {
+            long place = freeTiles.pick(terrainRandom, null);
+            if (place == FreeAreaIndex.NONE) {
+                return;
+            }
+            addStump(TileMap.column(place) * UNIT_SIZE, TileMap.row(place) * UNIT_SIZE);
+        }
+    }
+
+    // The index of obstacle-free units x units blocks, built the first time a spawn asks for that size
+    FreeAreaIndex freeAreas(int units) {
+        if (units < 1 || units > MAX_SPAWN_UNITS) {
+            throw new IllegalArgumentException("No free-area index for blocks of " + units + " tiles");
+        }
+        if (freeAreas[units] == null) {
+            freeAreas[units] = new FreeAreaIndex(units, columns(), rows(), obstacleGrid);
+        }
+        return freeAreas[units];
+    }
+
+    private void obstacleAdded(int column, int row) {
+        for (FreeAreaIndex index : freeAreas) {
+            if (index != null) {
+                index.blocked(column, row);
+            }
+        }
+        minimap.obstacleAdded(column, row);
+    }
+
+    private void rebuildFreeAreas() {
+        for (FreeAreaIndex index : freeAreas) {
+            if (index != null) {
+                index.rebuild(obstacleGrid);
+            }
+        }
+    }
+
+    void addRock(int x, int y) {
+        int column = Math.floorDiv(x, UNIT_SIZE), row = Math.floorDiv(y, UNIT_SIZE);
+        if (obstacleGrid.get(column, row)) {
+            return;
+        }
+        obstacleGrid.set(column, row);
+        rockCount++;
+        obstacleAdded(column, row);
+        obstacleVersion++;
+    }
+
+    void addStump(int x, int y) {
+        int column = Math.floorDiv(x, UNIT_SIZE), row = Math.floorDiv(y, UNIT_SIZE);
+        if (obstacleGrid.get(column, row)) {
+            return;
+        }
+        obstacleGrid.set(column, row);
+        stumpGrid.set(column, row);
+        stumpCount++;
+        obstacleAdded(column, row);
+        obstacleVersion++;
+    }
+
+    void clearObstacles() {
+        if (streamTerrain) {
+            // New terrain: every chunk is forgotten and made again from a new seed as it's needed
+            setTerrain(worldWidth, worldHeight, true, terrainRandom.nextLong());
+            return;
+        }
+        obstacleGrid.clearAll();
+        stumpGrid.clearAll();
+        rockCount = 0;
+        stumpCount = 0;
+        rebuildFreeAreas();
+        minimap.obstaclesCleared();
+        obstacleVersion++;
+    }
+
+    // Starts over with an empty world of the given size. A classic world has all of its pages
+    // loaded from the start; a streamed one loads chunks as the camera comes near them.
+    private void setTerrain(int width, int height, boolean stream, long seed) {
+        worldWidth = width;
+        worldHeight = height;
+        streamTerrain = stream;
+        terrainSeed = seed;
+        long tiles = (long) columns() * rows();
+        rockDensity = (double) config.numRocks / tiles;
+        stumpDensity = (double) config.numStumps / tiles;
+
+        obstacleGrid.removeAllPages();
+        stumpGrid.removeAllPages();
+        rockCount = 0;
+        stumpCount = 0;
+        Arrays.fill(freeAreas, null); // Made again for the new size when next asked for
+        streamedAround = Long.MIN_VALUE;
+        minimap.reset(columns(), rows());
+        if (!stream) {
+            for (int chunkY = 0; chunkY << CHUNK_SHIFT < rows(); chunkY++) {
+                for (int chunkX = 0; chunkX << CHUNK_SHIFT < columns(); chunkX++) {
+                    obstacleGrid.loadPage(chunkX, chunkY);
+                    stumpGrid.loadPage(chunkX, chunkY);
+                    minimap.pageLoaded(chunkX, chunkY, obstacleGrid);
+                }
+            }
+        }
+        // The map was made again for the new size, so everything indexed goes back on it
+        for (Enemy enemy : enemies) {
+            if (enemy.indexed) {
+                minimap.added(enemy.minimapKind(), enemy.x, enemy.y, enemy.size);
+            }
+        }
+        coinIndex.forEach((key, coin) -> minimap.added(Minimap.COIN, coin.x, coin.y, UNIT_SIZE));
+        foodIndex.forEach((key, food) -> minimap.added(Minimap.FOOD, food.x, food.y, UNIT_SIZE));
+        obstacleVersion++;
+    }
+
+    // Puts back the obstacles listed in a save (after setTerrain has emptied the world)
+    private void placeObstacles(List<Point> rocks, List<Point> stumps) {
+        for (Point rock : rocks) {
+            addRock(rock.x, rock.y);
+        }
+        for (Point stump : stumps) {
+            addStump(stump.x, stump.y);
+        }
+    }
+
+    // Lists every rock and stump by the world position of its tile, for saving a classic world
+    private void listObstacles(List<Point> rocks, List<Point> stumps) {
+        obstacleGrid.forEachPage((key, page) -> {
+            int firstColumn = TileMap.column(key) << CHUNK_SHIFT;
+            int firstRow = TileMap.row(key) << CHUNK_SHIFT;
+            for (int row = firstRow; row < firstRow + CHUNK_TILES; row++) {
+                for (int column = firstColumn; column < firstColumn + CHUNK_TILES; column++) {
+                    if (obstacleGrid.get(column, row)) {
+                        (stumpGrid.get(column, row) ? stumps : rocks).add(new Point(column * UNIT_SIZE, row * UNIT_SIZE));
+                    }
+                }
+            }
+        });
+    }
+
+    // --- Terrain streaming ---
+
+    /**
+     * Loads the chunks within streamRadius of the camera's chunk, then drops the farthest
+     * chunks outside that radius while more than maxLoadedChunks are loaded. Dropped chunks
+     * aren't kept anywhere: loading one again makes exactly the same tiles. Does nothing
+     * unless the terrain is streamed and the camera has moved into another chunk.
+     */
+    void streamChunks() {
+        if (!streamTerrain) {
+            return;
+        }
+        int chunkX = Math.floorDiv(cameraX + NATIVE_SCREEN_WIDTH / 2, CHUNK_SIZE);
+        int chunkY = Math.floorDiv(cameraY + NATIVE_SCREEN_HEIGHT / 2, CHUNK_SIZE);
+        if (TileMap.key(chunkX, chunkY) == streamedAround) {
+            return;
+        }
+        streamedAround = TileMap.key(chunkX, chunkY);
+
+        int radius = config.streamRadius;
+        for (int y = chunkY - radius; y <= chunkY + radius; y++) {
+            for (int x = chunkX - radius; x <= chunkX + radius; x++) {
+                loadChunk(x, y);
+            }
+        }
+        if (obstacleGrid.pageCount() > config.maxLoadedChunks) {
+            dropFarChunks(chunkX, chunkY, radius);
+        }
+    }
+
+    /**
+     * Loads every chunk under the given area of the world, for tools that look at parts of a
+     * streamed world away from the camera (exports). Past the chunk budget, the chunks farthest
+     * from the area are dropped again. Does nothing for a classic world, which has them all.
+     */
+    void loadChunksIn(int x, int y, int width, int height) {
+        if (!streamTerrain) {
+            return;
+        }
+        int firstChunkX = Math.floorDiv(x, CHUNK_SIZE), lastChunkX = Math.floorDiv(x + width - 1, CHUNK_SIZE);
+        int firstChunkY = Math.floorDiv(y, CHUNK_SIZE), lastChunkY = Math.floorDiv(y + height - 1, CHUNK_SIZE);
+        for (int chunkY = firstChunkY; chunkY <= lastChunkY; chunkY++) {
+            for (int chunkX = firstChunkX; chunkX <= lastChunkX; chunkX++) {
+                loadChunk(chunkX, chunkY);
+            }
+        }
+        if (obstacleGrid.pageCount() > config.maxLoadedChunks) {
+            int radius = Math.max(lastChunkX - firstChunkX, lastChunkY - firstChunkY) / 2 + 1;
+            dropFarChunks((firstChunkX + lastChunkX) / 2, (firstChunkY + lastChunkY) / 2, radius);
+        }
+        streamedAround = Long.MIN_VALUE; // The camera's chunks may have gone, so check them on the next tick
+    }
+
+    private void dropFarChunks(int chunkX, int chunkY, int radius) {
+        List<Long> far = new ArrayList<>();
+        obstacleGrid.forEachPage((key, page) -> {
+            if (chunkDistance(key, chunkX, chunkY) > radius) {
+                far.add(key);
+            }
+        });
+        far.sort((a, b) -> Integer.compare(chunkDistance(b, chunkX, chunkY), chunkDistance(a, chunkX, chunkY)));
+        for (int i = 0; i < far.size() && obstacleGrid.pageCount() > config.maxLoadedChunks; i++) {
+            unloadChunk(TileMap.column(far.get(i)), TileMap.row(far.get(i)));
+        }
+    }
+
+    // Distance in chunks along the longer axis
+    private static int chunkDistance(long key, int chunkX, int chunkY) {
+        return Math.max(Math.abs(TileMap.column(key) - chunkX), Math.abs(TileMap.row(key) - chunkY));
+    }
+
+    // Makes a chunk's rocks and stumps from the terrain seed, unless it is loaded already or outside the world
+    private void loadChunk(int chunkX, int chunkY) {
+        if (chunkX < 0 || chunkY < 0 || chunkX << CHUNK_SHIFT >= columns() || chunkY << CHUNK_SHIFT >= rows()
+                || obstacleGrid.hasPage(chunkX, chunkY)) {
+            return;
+        }
+        obstacleGrid.loadPage(chunkX, chunkY);
+        stumpGrid.loadPage(chunkX, chunkY);
+        // Seeded by the chunk's position alone, so it comes out the same whenever it is made
+        SplittableRandom chunkRandom = new SplittableRandom(terrainSeed ^ (TileMap.key(chunkX, chunkY) * 0x9E3779B97F4A7C15L));
+        int lastColumn = Math.min(columns(), (chunkX + 1) << CHUNK_SHIFT);
+        int lastRow = Math.min(rows(), (chunkY + 1) << CHUNK_SHIFT);
+        for (int row = chunkY << CHUNK_SHIFT; row < lastRow; row++) {
+            for (int column = chunkX << CHUNK_SHIFT; column < lastColumn; column++) {
+                double roll = chunkRandom.nextDouble();
+                if (roll < rockDensity) {
+                    obstacleGrid.set(column, row);
+                    rockCount++;
+                } else if (roll < rockDensity + stumpDensity) {
+                    obstacleGrid.set(column, row);
+                    stumpGrid.set(column, row);
+                    stumpCount++;
+                }
+            }
+        }
+        for (FreeAreaIndex index : freeAreas) {
+            if (index != null) {
+                index.pageLoaded(chunkX, chunkY, obstacleGrid);
+            }
+        }
+        minimap.pageLoaded(chunkX, chunkY, obstacleGrid);
+        obstacleVersion++;
+    }
+
+    private void unloadChunk(int chunkX, int chunkY) {
+        for (FreeAreaIndex index : freeAreas) {
+            if (index != null) {
+                index.pageUnloaded(chunkX, chunkY);
+            }
+        }
+        minimap.pageUnloaded(chunkX, chunkY, obstacleGrid);
+        int stumps = stumpGrid.countPage(chunkX, chunkY);
+        rockCount -= obstacleGrid.countPage(chunkX, chunkY) - stumps;
+        stumpCount -= stumps;
+        obstacleGrid.removePage(chunkX, chunkY);
+        stumpGrid.removePage(chunkX, chunkY);
+        obstacleVersion++;
+    }
+
+    // A streamed world makes sure the chunks under the size x size block at tile (column, row) are loaded
+    private void loadChunksUnder(int column, int row, int size) {
+        if (streamTerrain) {
+            // A block is never bigger than a chunk, so its corners' chunks cover all of it
+            loadChunk(column >> CHUNK_SHIFT, row >> CHUNK_SHIFT);
+            loadChunk((column + size - 1) >> CHUNK_SHIFT, row >> CHUNK_SHIFT);
+            loadChunk(column >> CHUNK_SHIFT, (row + size - 1) >> CHUNK_SHIFT);
+            loadChunk((column + size - 1) >> CHUNK_SHIFT, (row + size - 1) >> CHUNK_SHIFT);
+        }
+    }
+
+    int columns() {
+        return worldWidth / UNIT_SIZE;
+    }
+
+    int rows() {
+        return worldHeight / UNIT_SIZE;
+    }
+
+    // True if the tile at world position (x, y) holds a rock or stump
+    boolean isObstacle(int x, int y) {
+        int column = Math.floorDiv(x, UNIT_SIZE), row = Math.floorDiv(y, UNIT_SIZE);
+        loadChunksUnder(column, row, 1);
+        return obstacleGrid.get(column, row);
+    }
+
+    // True if any tile under a size x size square at (x, y) holds an obstacle
+    boolean isAreaOccupied(int x, int y, int size) {
+        int numUnits = size / UNIT_SIZE;
+        int column = Math.floorDiv(x, UNIT_SIZE), row = Math.floorDiv(y, UNIT_SIZE);
+        loadChunksUnder(column, row, numUnits);
+        return !obstacleGrid.isAreaFree(column, row, numUnits, numUnits);
+    }
+
+    void addEnemy(Enemy enemy) {
+        enemies.add(enemy);
+        enemyIndex.insert(enemy, enemy.x, enemy.y, enemy.size, enemy.size);
+        enemy.indexed = true;
+        minimap.added(enemy.minimapKind(), enemy.x, enemy.y, enemy.size);
+    }
+
+    void removeEnemy(Enemy enemy) {
+        if (enemies.remove(enemy)) {
+            enemyIndex.remove(enemy, enemy.x, enemy.y, enemy.size, enemy.size);
+            enemy.indexed = false;
+            minimap.removed(enemy.minimapKind(), enemy.x, enemy.y, enemy.size);
+        }
+    }
+
+    void clearEnemies() {
+        for (Enemy enemy : enemies) {
+            enemy.indexed = false;
+        }
+        enemies.clear();
+        enemyIndex.clear();
+        minimap.cleared(Minimap.ENEMY);
+        minimap.cleared(Minimap.BOSS);
+    }
+
+    // The first enemy whose square overlaps the given square, or null
+    Enemy findEnemyOverlapping(int x, int y, int size) {
+        nearbyEnemies.clear();
+        enemyIndex.query(x, y, size, size, nearbyEnemies);
+        for (int i = 0; i < nearbyEnemies.size(); i++) {
+            Enemy enemy = nearbyEnemies.get(i);
+            if (overlaps(x, y, size, enemy.x, enemy.y, enemy.size)) {
+                return enemy;
+            }
+        }
+        return null;
+    }
+
+    // Axis-aligned overlap test for two square areas
+    static boolean overlaps(int x1, int y1, int size1, int x2, int y2, int size2) {
+        return x1 < x2 + size2 && x2 < x1 + size1 && y1 < y2 + size2 && y2 < y1 + size1;
+    }
+
+    public void checkCollisions() {
+        long now = now();
+
+        // --- Enemy Collision ---
+        Enemy collidedEnemy = findEnemyOverlapping(heroX, heroY, UNIT_SIZE);
+
+        if (collidedEnemy != null) {
+            // --- STEP 1: ENEMY ATTACKS FIRST ---
+            double evasionChance = (evasivenessLevel - 1) * 0.14;
+            if (combatRandom.nextDouble() > evasionChance) { // Check if the hero dodges
+                if (now < shieldBoostEndTime) { // Check if the shield blocks
+                    displayMessage("Shield blocked!");
+                } else {
+                    // If not dodged or shielded, the hero takes damage.
+                    int damageTaken = Math.max(1, collidedEnemy.level - (this.defenseLevel - 1));
+                    this.heroHealth -= damageTaken;
+                    displayMessage("Ouch! -", damageTaken, " HP");
+
+                    // Check if the hero died from the hit.
+                    if (heroHealth <= 0) {
+                        displayMessage("You died! Resetting...");
+                        heroHealth = heroMaxHealth;
+                        coinCount = 0;
+                        // ... other death penalties ...
+                        heroX = (NATIVE_SCREEN_WIDTH / 2 / UNIT_SIZE) * UNIT_SIZE;
+                        heroY = (NATIVE_SCREEN_HEIGHT / 2 / UNIT_SIZE) * UNIT_SIZE;
+                        updateCamera();
+                        return; // EXIT apon death. The hero does not get to counter-attack.
+                    }
+                }
+            } else {
+                displayMessage("Dodged!");
+            }
+
+            // --- STEP 2: HERO COUNTER-ATTACKS (only if the hero survived) ---
+            int damageDealt = 1 + (this.attackLevel - 1);
+            if (now < critBoostEndTime && combatRandom.nextDouble() < 0.25) {
+                damageDealt *= 2;
+                displayMessage("Critical Hit!");
+            }
+
+            boolean didDie = collidedEnemy.takeDamage(damageDealt);
+
+            if (didDie) {
+                // Grant rewards for the kill
+                int xpGained = collidedEnemy.level * 25;
+                addXP(xpGained);
+                int coinsDropped = (collidedEnemy.level <= 10) ? 1 : (collidedEnemy.level <= 15 ? 2 : 3);
+                this.coinCount += coinsDropped;
+                displayMessage("+", coinsDropped, " Coin(s)!");
+
+                // Decide what happens to the defeated enemy's spot
+                boolean removePermanently = false;
+                if (collidedEnemy.level == 25 && currentGameState == GameState.BOSS_FIGHT_ACTIVE) {
+                    displayMessage("You defeated the boss!");
+                    currentGameState = GameState.POST_BOSS;
+                    milestones++;
+                    removePermanently = true;
+                    for (int i = 0; i < config.numEnemies; i++) addEnemy(new Enemy(this));
+                } else if (collidedEnemy.level == 20 && currentGameState == GameState.NORMAL) {
+                    level20EnemiesDefeated++;
+                    removePermanently = true;
+                    if (level20EnemiesDefeated >= 4) {
+                        currentGameState = GameState.BOSS_FIGHT_PENDING;
+                    }
+                }
+
+                // Execute the decision
+                if (removePermanently) {
+                    removeEnemy(collidedEnemy);
+                } else {
+                    collidedEnemy.respawn();
+                }
+
+            } else { // Enemy survived the hit
+                collidedEnemy.teleportNearby();
+            }
+        }
+        // Coin collision
+        long heroTile = tileKey(heroX, heroY);
+        Point collectedCoin = coinIndex.get(heroTile);
+        if (collectedCoin != null) {
+            this.coinCount++;
+            displayMessage("+1 Coin!");
+            teleportCoin(collectedCoin);
+        }
+
+        // Food collision
+        Point collectedFood = foodIndex.get(heroTile);
+        if (collectedFood != null) {
+            heroHealth += 10; // Heal the hero
+            // Clamp health so it doesn't go over the max
+            heroHealth = Math.min(heroHealth, heroMaxHealth);
+            displayMessage("+10 HP!");
+            teleportFood(collectedFood); // Move the food to a new spot
+        }
+    }
+
+    public void addXP(int amount) {
+        heroXP += amount;
+        displayMessage("+", amount, " XP");
+        while (heroXP >= xpToNextLevel) {
+            levelUp();
+        }
+    }
+
+    public void addMaxHealth(int amount) {
+        heroMaxHealth += amount;
+        heroHealth += amount;
+        displayMessage("Max Health increased by ", amount, "");
+    }
+
+    private void levelUp() {
+        heroLevel++;
+        heroXP -= xpToNextLevel;
+        addMaxHealth(5);
+        xpToNextLevel *= 1.5;
+        displayMessage("LEVEL UP!");
+        milestones++;
+    }
+
+    public void moveHero(char direction) {
+        int nextX = heroX;
+        int nextY = heroY;
+        switch (direction) {
+            case 'U': nextY -= UNIT_SIZE; break;
+            case 'D': nextY += UNIT_SIZE; break;
+            case 'L': nextX -= UNIT_SIZE; break;
+            case 'R': nextX += UNIT_SIZE; break;
+        }
+        if (nextX >= 0 && nextX < worldWidth &&
+            nextY >= 0 && nextY < worldHeight &&
+            !isObstacle(nextX, nextY)) {
+            heroX = nextX;
+            heroY = nextY;
+        }
+    }
+
+    void updateCamera() {
+        cameraX = heroX - (NATIVE_SCREEN_WIDTH / 2);
+        cameraY = heroY - (NATIVE_SCREEN_HEIGHT / 2);
+        cameraX = Math.max(0, Math.min(cameraX, worldWidth - NATIVE_SCREEN_WIDTH));
+        cameraY = Math.max(0, Math.min(cameraY, worldHeight - NATIVE_SCREEN_HEIGHT));
+    }
+
+    public void displayMessage(String text) {
+        activeMessages.add(text, now() + MESSAGE_DURATION);
+    }
+
+    // Shows prefix, number and suffix as one message, without building a string for it
+    public void displayMessage(String prefix, int number, String suffix) {
+        activeMessages.add(prefix, number, suffix, now() + MESSAGE_DURATION);
+    }
+
+    // --- This method starts the shake and spawns the boss ---
+    private void triggerBossSequence() {
+        displayMessage("The ground rumbles violently!");
+        // Start the screen shake for 1.5 seconds
+        shakeEndTime = now() + 1500;
+
+        spawnBoss(); // Spawn the boss while the screen is shaking
+        currentGameState = GameState.BOSS_FIGHT_ACTIVE;
+    }
+
+    // --- Method to create the boss ---
+    private void spawnBoss() {
+        displayMessage("A powerful enemy appears!");
+        // Create a boss enemy - for now, it's just a high-level enemy.
+        // You can create a new Boss class later for unique behavior.
+        Enemy boss = new Enemy(this);
+        boss.level = 25;
+        boss.maxHealth = 225;
+        boss.currentHealth = 225;
+        // Place it in the center of the world
+        int bossX = (worldWidth / 2 / UNIT_SIZE) * UNIT_SIZE;
+        int bossY = (worldHeight / 2 / UNIT_SIZE) * UNIT_SIZE;
+        if (streamTerrain) {
+            // The middle of a streamed world may be far away and not even generated, so the boss comes to the hero
+            long place = freeAreas(3).pickNear(enemyRandom, heroX / UNIT_SIZE, heroY / UNIT_SIZE, 8, (c, r) ->
+                    !overlaps(c * UNIT_SIZE, r * UNIT_SIZE, UNIT_SIZE * 3, heroX, heroY, UNIT_SIZE));
+            if (place != FreeAreaIndex.NONE) {
+                bossX = TileMap.column(place) * UNIT_SIZE;
+                bossY = TileMap.row(place) * UNIT_SIZE;
+            }
+        }
+        boss.placeAt(bossX, bossY, UNIT_SIZE * 3);
+        addEnemy(boss);
+
+        currentGameState = GameState.BOSS_FIGHT_ACTIVE;
+    }
+
+    // This regenerates only the obstacles and centres the camera, for taking screenshots of the world.
+    public void generateWorldForScreenshot() {
+        // Clear all game objects
+        activeMessages.clear();
+        clearEnemies();
+        clearObstacles();
+        terrainFromSeed = false; // Drawn further along the terrain stream, so no longer just the seed's
+
+        // Center the camera in the middle of the world (first, so a streamed world generates what it shows)
+        cameraX = (worldWidth - NATIVE_SCREEN_WIDTH) / 2;
+        cameraY = (worldHeight - NATIVE_SCREEN_HEIGHT) / 2;
+
+        // Generate the obstacles
+        generateObstacles();
+    }
+
+    // --- Market ---
+
+    public int getMaxLevelFor(String upgradeName) {
+        switch (upgradeName) {
+            case "Attack":
+            case "Defense":
+            case "Health":
+                // These can go up to level 20 only after the boss is beaten
+                return (currentGameState == GameState.POST_BOSS) ? 20 : 5;
+            case "Evasiveness":
+            default:
+                // Evasiveness is always capped at level 5
+                return 5;
+        }
+    }
+
+    // The price shown in the market for the next level of an upgrade
+    public String getUpgradeCostLabel(String upgradeName, int currentLevel) {
+        if (currentLevel >= getMaxLevelFor(upgradeName)) {
+            return "MAX";
+        }
+        return (currentLevel >= 5 ? 15 : UPGRADE_COSTS[currentLevel - 1]) + " Coins";
+    }
+
+    public void purchaseUpgrade(String upgradeName) {
+        int currentLevel;
+        // NEW: This block determines the current level based on the upgrade's name
+        switch (upgradeName) {
+            case "Attack":      currentLevel = attackLevel;         break;
+            case "Defense":     currentLevel = defenseLevel;        break;
+            case "Evasiveness": currentLevel = evasivenessLevel;    break;
+            case "Health":      currentLevel = healthUpgradeLevel;  break;
+            default: return; // Exit if the name is invalid
+        }
+
+        int maxLevel = getMaxLevelFor(upgradeName);
+        if (currentLevel >= maxLevel) {
+            displayMessage(upgradeName + " is already max level!");
+            return;
+        }
+
+        // --- Dynamic Cost Calculation ---
+        int cost;
+        if (currentLevel < 5) {
+            cost = UPGRADE_COSTS[currentLevel - 1]; // Use array for early levels
+        } else {
+            cost = 15; // Flat cost for levels 5+
+        }
+
+        if (coinCount < cost) {
+            displayMessage("Not enough coins!");
+            return;
+        }
+
+        coinCount -= cost;
+        String successMessage = "";
+
+        switch (upgradeName) {
+            case "Attack":
+                attackLevel++;
+                successMessage = "Attack upgraded to Lvl " + attackLevel + "!";
+                break;
+            case "Defense":
+                defenseLevel++;
+                successMessage = "Defense upgraded to Lvl " + defenseLevel + "!";
+                break;
+            case "Evasiveness":
+                evasivenessLevel++;
+                successMessage = "Evasion upgraded to Lvl " + evasivenessLevel + "!";
+                break;
+            case "Health":
+                healthUpgradeLevel++;
+                addMaxHealth(5);
+                successMessage = "Max Health upgraded!";
+                break;
+        }
+        displayMessage(successMessage);
+    }
+
+    public void buyFood() {
+        if (heroHealth >= heroMaxHealth) displayMessage("You are already at full health!");
+        else if (coinCount < 5) displayMessage("Not enough coins!");
+        else {
+            coinCount -= 5;
+            heroHealth = Math.min(heroHealth + 10, heroMaxHealth);
+            displayMessage("Healed for 10 HP!");
+        }
+    }
+
+    public void buyCritBoost() {
+        if (coinCount < 25) displayMessage("Not enough coins!");
+        else {
+            coinCount -= 25;
+            critBoostEndTime = now() + 30000; // 30 seconds
+            displayMessage("Critical Boost activated!");
+        }
+    }
+
+    public void buySpeedBoost() {
+        if (coinCount < 15) displayMessage("Not enough coins!");
+        else {
+            coinCount -= 15;
+            speedBoostEndTime = now() + 60000; // 60 seconds
+            displayMessage("Speed Boost activated!");
+        }
+    }
+
+    public void buyShield() {
+        if (coinCount < 25) displayMessage("Not enough coins!");
+        else {
+            coinCount -= 25;
+            shieldBoostEndTime = now() + 15000; // 15 seconds
+            displayMessage("Shield activated!");
+        }
+    }
+
+    // --- Inner Classes ---
+
+    public static class Enemy implements Serializable {
+        private static final long serialVersionUID = 1L;
+        int x, y, level, currentHealth, maxHealth, size;
+
+        transient World world;
+        transient boolean indexed; // True while the world's enemyIndex holds this enemy
+
+        Enemy(World world) {
+            this.world = world;
+            this.level = 0;
+            this.size = UNIT_SIZE;
+            respawn();
+        }
+
+        // The boss is the only enemy bigger than one tile
+        public boolean isBoss() {
+            return size > UNIT_SIZE;
+        }
+
+        // A detached copy for saving
+        Enemy copy() {
+            Enemy copy = new Enemy();
+            copy.x = x;
+            copy.y = y;
+            copy.level = level;
+            copy.currentHealth = currentHealth;
+            copy.maxHealth = maxHealth;
+            copy.size = size;
+            return copy;
+        }
+
+        private Enemy() {
+        }
+
+        // A detached enemy as read from a save, for applySaveData to put in the world
+        static Enemy saved(int x, int y, int level, int currentHealth, int maxHealth, int size) {
+            Enemy enemy = new Enemy();
+            enemy.x = x;
+            enemy.y = y;
+            enemy.level = level;
+            enemy.currentHealth = currentHealth;
+            enemy.maxHealth = maxHealth;
+            enemy.size = size;
+            return enemy;
+        }
+
+        // Moves (and resizes) the enemy, keeping the world's spatial index up to date
+        void placeAt(int newX, int newY, int newSize) {
+            int oldX = x, oldY = y, oldSize = size, oldKind = minimapKind();
+            if (indexed) {
+                world.enemyIndex.remove(this, x, y, size, size);
+            }
+            this.x = newX;
+            this.y = newY;
+            this.size = newSize;
+            if (indexed) {
+                world.enemyIndex.insert(this, x, y, size, size);
+                world.minimap.moved(oldKind, oldX, oldY, oldSize, minimapKind(), x, y, size);
+            }
+        }
+
+        int minimapKind() {
+            return isBoss() ? Minimap.BOSS : Minimap.ENEMY;
+        }
+
+        public boolean takeDamage(int amount) {
+            this.currentHealth -= amount;
+            return this.currentHealth <= 0;
+        }
+
+        public void respawn() {
+            this.level++;
+            // For post-boss gameplay, make sure enemies respawn at a high level
+            if (world.currentGameState == GameState.POST_BOSS && this.level <= 20) {
+                this.level = 21;
+            }
+
+            this.maxHealth = this.level;
+            this.currentHealth = this.maxHealth;
+            teleportAnywhere();
+        }
+
+        // Teleports the enemy to a free spot up to 5 tiles from where it is now (never the same spot).
+        // If there is none, it teleports anywhere instead.
+        public void teleportNearby() {
+            int column = x / UNIT_SIZE;
+            int row = y / UNIT_SIZE;
+            long place = world.freeAreas(size / UNIT_SIZE).pickNear(world.enemyRandom, column, row, 5,
+                    (c, r) -> c != column || r != row);
+            if (place == FreeAreaIndex.NONE) {
+                teleportAnywhere();
+                return;
+            }
+            placeAt(TileMap.column(place) * UNIT_SIZE, TileMap.row(place) * UNIT_SIZE, this.size);
+        }
+
+        // Teleports the enemy to a random free spot in the world (the loaded part of a streamed
+        // world) that isn't on the hero. If there is none, it stays where it is.
+        public void teleportAnywhere() {
+            int heroX = world.heroX, heroY = world.heroY;
+            long place = world.freeAreas(size / UNIT_SIZE).pick(world.enemyRandom, (c, r) ->
+                    !overlaps(c * UNIT_SIZE, r * UNIT_SIZE, this.size, heroX, heroY, UNIT_SIZE));
+            if (place == FreeAreaIndex.NONE) {
+                return;
+            }
+            placeAt(TileMap.column(place) * UNIT_SIZE, TileMap.row(place) * UNIT_SIZE, this.size);
+        }
+    }
+}
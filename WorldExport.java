@@ -0,0 +1,233 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Draws a whole world (or part of it) at a chosen scale into a PNG, without a window. Used
+ * for reviewing levels and as golden images: the same seed and arguments give the same file.
+ *
+ * The image is cut into TILE x TILE tiles, drawn in parallel on a thread pool, each thread
+ * with its own renderer. Tiles are done a band (one row of tiles) at a time and the band is
+ * written out as soon as it is stitched, while the next one is being drawn, so only about
+ * two bands are ever in memory however big the image is. The world itself is only touched
+ * from the main thread, which captures a snapshot for each tile before handing it out; for
+ * a streamed world it loads the chunks under each band first.
+ *
+ * Usage: java -Djava.awt.headless=true [-Ddonkey.worldScreens=N] [-Ddonkey.seed=N] [-Ddonkey.exportThreads=N]
+ *        [-Ddonkey.exportCheck=true] WorldExport out.png [scale] [x y width height]
+ * The scale is image pixels per world pixel (1 by default), and the area is in world pixels
+ * (the whole world by default). With exportCheck the image is drawn a second time on one
+ * thread, and the export fails unless both come out byte for byte the same.
+ */
+public class WorldExport {
+    private static final int TILE = 512; // In image pixels
+
+    private final World world;
+    private final int areaX, areaY;
+    private final double scale;
+    private final int imageWidth, imageHeight;
+    private final ExecutorService pool;
+    private final ThreadLocal<WorldRenderer> renderers =
+            ThreadLocal.withInitial(() -> new WorldRenderer(new SpriteCache()));
+    // The tiles of a band share the world's published obstacle grids, and a grid remembers the
+    // last page it looked up, so each thread reads them through copies of its own
+    private final ThreadLocal<GridCopies> gridCopies = ThreadLocal.withInitial(GridCopies::new);
+
+    WorldExport(World world, int areaX, int areaY, int areaWidth, int areaHeight, double scale, int threads) {
+        this.world = world;
+        this.areaX = areaX;
+        this.areaY = areaY;
+        this.scale = scale;
+        this.imageWidth = Math.max(1, (int) Math.round(areaWidth * scale));
+        this.imageHeight = Math.max(1, (int) Math.round(areaHeight * scale));
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1 && args.length != 2 && args.length != 6) {
+            System.err.println("Usage: WorldExport out.png [scale] [x y width height]");
+            System.exit(2);
+        }
+        Path output = Paths.get(args[0]);
+        double scale = (args.length > 1) ? Double.parseDouble(args[1]) : 1.0;
+        int threads = Integer.getInteger("donkey.exportThreads", Runtime.getRuntime().availableProcessors());
+        if (scale <= 0 || threads < 1) {
+            throw new IllegalArgumentException("The scale and the thread count must be positive");
+        }
+
+        World world = new World(World.Config.fromSystemProperties());
+        world.startGame();
+
+        int x = 0, y = 0, width = world.worldWidth, height = world.worldHeight;
+        if (args.length == 6) {
+            x = Integer.parseInt(args[2]);
+            y = Integer.parseInt(args[3]);
+            width = Integer.parseInt(args[4]);
+            height = Integer.parseInt(args[5]);
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Empty area: " + width + "x" + height);
+            }
+        }
+
+        WorldExport export = new WorldExport(world, x, y, width, height, scale, threads);
+        long start = System.nanoTime();
+        boolean written = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+                export.write(out);
+            }
+            written = true; // Only once the stream is flushed and closed
+        } finally {
+            export.pool.shutdownNow();
+            if (!written) {
+                Files.deleteIfExists(output); // Don't leave half an image behind to be mistaken for a whole one
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("Wrote %s: %dx%d pixels of the world of seed %d in %.1f ms on %d threads%n",
+                output, export.imageWidth, export.imageHeight, world.seed, elapsed / 1e6, threads);
+
+        if (Boolean.getBoolean("donkey.exportCheck") && threads > 1) {
+            WorldExport single = new WorldExport(world, x, y, width, height, scale, 1);
+            MessageDigest expected = sha256();
+            try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), expected)) {
+                single.write(out);
+            } finally {
+                single.pool.shutdownNow();
+            }
+            MessageDigest actual = sha256();
+            try (InputStream in = new DigestInputStream(new BufferedInputStream(Files.newInputStream(output)), actual)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            if (!MessageDigest.isEqual(expected.digest(), actual.digest())) {
+                System.err.println("Check failed: " + threads + " threads drew a different image from 1 thread");
+                System.exit(1);
+            }
+            System.out.println("Checked: the same bytes as drawn on 1 thread");
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256", e);
+        }
+    }
+
+    // Draws every band and streams it into out as a PNG
+    void write(OutputStream out) throws IOException, InterruptedException {
+        int bands = (imageHeight + TILE - 1) / TILE;
+        int[] band = new int[imageWidth * TILE]; // The stitched band, reused
+        try (PngWriter png = new PngWriter(out, imageWidth, imageHeight)) {
+            List<Future<BufferedImage>> tiles = submitBand(0);
+            for (int b = 0; b < bands; b++) {
+                List<Future<BufferedImage>> nextTiles = (b + 1 < bands) ? submitBand(b + 1) : null;
+                int bandHeight = Math.min(TILE, imageHeight - b * TILE);
+                for (int t = 0; t < tiles.size(); t++) {
+                    BufferedImage tile = await(tiles.get(t));
+                    int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+                    for (int row = 0; row < bandHeight; row++) {
+                        System.arraycopy(pixels, row * tile.getWidth(), band, row * imageWidth + t * TILE, tile.getWidth());
+                    }
+                }
+                png.writeRows(band, 0, imageWidth, bandHeight);
+                tiles = nextTiles;
+            }
+        }
+    }
+
+    // Captures a snapshot for each tile of a band and hands them to the pool to draw
+    private List<Future<BufferedImage>> submitBand(int b) {
+        int top = b * TILE;
+        int bandHeight = Math.min(TILE, imageHeight - top);
+        world.loadChunksIn(worldX(0), worldY(top), worldX(imageWidth) - worldX(0) + 1, worldY(top + bandHeight) - worldY(top) + 1);
+
+        List<Future<BufferedImage>> tiles = new ArrayList<>();
+        for (int left = 0; left < imageWidth; left += TILE) {
+            int tileX = left, tileWidth = Math.min(TILE, imageWidth - left);
+            int x = worldX(left), y = worldY(top);
+            WorldSnapshot snapshot = new WorldSnapshot();
+            world.captureArea(snapshot, x - World.VIEW_MARGIN, y - World.VIEW_MARGIN,
+                    worldX(left + tileWidth) - x + 1 + 2 * World.VIEW_MARGIN,
+                    worldY(top + bandHeight) - y + 1 + 2 * World.VIEW_MARGIN);
+            tiles.add(pool.submit(() -> drawTile(snapshot, tileX, top, tileWidth, bandHeight)));
+        }
+        return tiles;
+    }
+
+    private BufferedImage drawTile(WorldSnapshot snapshot, int left, int top, int width, int height) {
+        GridCopies copies = gridCopies.get();
+        snapshot.obstacleTiles = copies.obstacles(snapshot.obstacleTiles);
+        snapshot.stumpTiles = copies.stumps(snapshot.stumpTiles);
+        BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = tile.createGraphics();
+        try {
+            // Every tile uses the same mapping from world to image, shifted by whole pixels,
+            // so sprites cut by a tile edge line up with their other half
+            g.translate(-left, -top);
+            g.clipRect(left, top, width, height);
+            renderers.get().renderArea(g, snapshot, areaX, areaY, scale);
+        } finally {
+            g.dispose();
+        }
+        return tile;
+    }
+
+    // The world coordinate under an image column or row, rounded down
+    private int worldX(int imageX) {
+        return areaX + (int) Math.floor(imageX / scale);
+    }
+
+    private int worldY(int imageY) {
+        return areaY + (int) Math.floor(imageY / scale);
+    }
+
+    // One thread's copies of the grids it was last given. Copying only reads the pages, which
+    // any number of threads may do at once; it's page lookups that keep state.
+    private static final class GridCopies {
+        private OccupancyGrid obstacleSource, obstacleCopy, stumpSource, stumpCopy;
+
+        OccupancyGrid obstacles(OccupancyGrid source) {
+            if (source != obstacleSource) {
+                obstacleSource = source;
+                obstacleCopy = source.copy();
+            }
+            return obstacleCopy;
+        }
+
+        OccupancyGrid stumps(OccupancyGrid source) {
+            if (source != stumpSource) {
+                stumpSource = source;
+                stumpCopy = source.copy();
+            }
+            return stumpCopy;
+        }
+    }
+
+    private static BufferedImage await(Future<BufferedImage> tile) throws IOException, InterruptedException {
+        try {
+            return tile.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Drawing a tile failed", e.getCause());
+        }
+    }
+}
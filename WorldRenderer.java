@@ -0,0 +1,619 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Draws a WorldSnapshot: terrain, entities, floating messages, HUD and market icon.
+ * It is shared by the passive Swing path (DonkeyGamePanel.paintComponent on the EDT) and
+ * the active path (GameCanvas on the game thread), so it never calls repaint or touches
+ * Swing state itself. It only reads snapshots, never the live World.
+ */
+class WorldRenderer {
+    private static final int UNIT_SIZE = World.UNIT_SIZE;
+    private static final int NATIVE_SCREEN_WIDTH = World.NATIVE_SCREEN_WIDTH;
+    private static final int NATIVE_SCREEN_HEIGHT = World.NATIVE_SCREEN_HEIGHT;
+    private static final int SHAKE_INTENSITY = 8; // How far the screen will shake in pixels
+
+    // Enemy health bars, centred above the enemy
+    private static final int ENEMY_BAR_WIDTH = 40, ENEMY_BAR_HEIGHT = 7, ENEMY_BAR_OFFSET = 15;
+    // Floating messages, stacked upwards from above the hero with the newest at the bottom
+    private static final int MESSAGE_OFFSET = 30, MESSAGE_LINE_HEIGHT = 15;
+
+    private List<BufferedImage> coinFrames = new ArrayList<>();
+
+    // Images
+    private BufferedImage heroImage;
+    private BufferedImage enemyImage;
+    private BufferedImage bossImage;
+    private BufferedImage rockImage;
+    private BufferedImage stumpImage;
+    private BufferedImage coinSpriteSheet;
+    private BufferedImage foodImage;
+    private BufferedImage marketIcon;
+    private BufferedImage grassTexture;
+    private volatile Rectangle marketIconBounds;
+
+    // The images above, pre-scaled to the pixels they cover (shared with the title screen)
+    private final SpriteCache sprites;
+
+    // How the native screen maps onto the surface: worked out again only when the surface size
+    // or its density (device pixels per component pixel, above 1 on HiDPI screens) changes
+    private int layoutWidth = -1, layoutHeight = -1;
+    private double layoutDensity = 1;
+    private double scale;            // Component pixels per world pixel
+    private double offsetX, offsetY; // Where the native screen's corner is, in component pixels
+    private boolean integerScaling;
+    private boolean wholePixels; // integerScaling, in a window big enough for it
+
+    // Text styles, each rasterized once into a glyph atlas with its shadow baked in
+    private final GlyphAtlas enemyLevelText = new GlyphAtlas(new Font("Arial", Font.BOLD, 12), Color.WHITE, null);
+    private final GlyphAtlas messageText = new GlyphAtlas(new Font("Arial", Font.BOLD, 12), Color.YELLOW, Color.BLACK);
+    private final GlyphAtlas heroLevelText = new GlyphAtlas(new Font("Arial", Font.BOLD, 16), Color.WHITE, Color.BLACK);
+    private final GlyphAtlas coinCountText = new GlyphAtlas(new Font("Arial", Font.BOLD, 18), Color.YELLOW, Color.BLACK);
+    private final GlyphAtlas bossCounterText = new GlyphAtlas(new Font("Arial", Font.BOLD, 18), Color.ORANGE, Color.BLACK);
+
+    // The HUD and boss counter, repainted only when the numbers they show change
+    private static final int HUD_TOP = 4; // Room above the bars for the top of the text
+    private static final int BOSS_COUNTER_WIDTH = 420;
+    private final CachedLayer hudLayer = new CachedLayer(400, 34, 6, this::paintHud);
+    private final CachedLayer bossCounterLayer = new CachedLayer(BOSS_COUNTER_WIDTH, 45, 1, this::paintBossCounter);
+
+    // The minimap in the bottom-right corner. Its cells are copied in only when they changed,
+    // and it is kept in a layer (framed, with the view and the hero marked) like the HUD.
+    private static final int MINIMAP_MARGIN = 10;
+    private BufferedImage minimapImage;
+    private long minimapImageVersion = -1;
+    private CachedLayer minimapLayer;
+
+    // Background and obstacles, baked into chunk images
+    private final TerrainCache terrain;
+
+    // Only used for the screen shake jitter, so it doesn't disturb the world's random sequence
+    private final Random shakeRandom = new Random();
+
+    // What findChanges last saw that changes the whole screen
+    private int listedCameraX, listedCameraY, listedWidth, listedHeight;
+    private long listedObstacleVersion = -1;
+    private World.GameState listedGameState;
+    private boolean listedShaking;
+    private final Rectangle bounds = new Rectangle(); // Scratch, for the thread drawing or listing
+
+    public WorldRenderer() {
+        this(SpriteCache.shared());
+    }
+
+    // A renderer with its own sprite cache, for drawing on another thread than the game's (exports)
+    WorldRenderer(SpriteCache sprites) {
+        this.sprites = sprites;
+        loadImages();
+        terrain = new TerrainCache(rockImage, stumpImage);
+    }
+
+    // Where the market icon was last drawn, in component coordinates (null until the first frame)
+    public Rectangle getMarketIconBounds() {
+        return marketIconBounds;
+    }
+
+    // --- Image Loading ---
+
+    private void loadImages() {
+        heroImage = loadImage("/resources/hero_image.png");
+        enemyImage = loadImage("/resources/enemy_image.png");
+        bossImage = loadImage("/resources/boss.png");
+        rockImage = loadImage("/resources/rock.png");
+        stumpImage = loadImage("/resources/stump.png");
+        coinSpriteSheet = loadImage("/resources/coin.png");
+        foodImage = loadImage("/resources/food.png");
+        marketIcon = loadImage("/resources/market.png");
+        grassTexture = loadImage("/resources/grass.png");
+
+        // Cut the coin sprite sheet into frames
+        if (coinSpriteSheet != null) {
+            int frameWidth = 120;  // The width of one coin frame in pixels
+            int frameHeight = 120; // The height of one coin frame
+            int numFrames = World.COIN_FRAME_COUNT; // The number of frames in your sheet
+
+            for (int i = 0; i < numFrames; i++) {
+                coinFrames.add(coinSpriteSheet.getSubimage(i * frameWidth, 0, frameWidth, frameHeight));
+            }
+        }
+    }
+
+    // Loads one image, or returns null (and the sprite is skipped) if it is missing or unreadable
+    private BufferedImage loadImage(String path) {
+        java.net.URL url = getClass().getResource(path);
+        if (url == null) {
+            System.err.println("Missing image: " + path);
+            return null;
+        }
+        try {
+            return ImageIO.read(url);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error loading image: " + path);
+            return null;
+        }
+    }
+
+    // --- Drawing ---
+
+    /**
+     * Draws one frame into a surface of the given size.
+     * alpha is how far the game loop is between the last tick and the next one (0..1).
+     */
+    public void render(Graphics2D g2d, WorldSnapshot world, int width, int height, double alpha) {
+        int cameraX = world.cameraX;
+        int cameraY = world.cameraY;
+
+        // --- Calculate screen shake offset ---
+        int shakeOffsetX = 0;
+        int shakeOffsetY = 0;
+        if (world.shaking) {
+            shakeOffsetX = (shakeRandom.nextInt(SHAKE_INTENSITY * 2) - SHAKE_INTENSITY);
+            shakeOffsetY = (shakeRandom.nextInt(SHAKE_INTENSITY * 2) - SHAKE_INTENSITY);
+        }
+
+        AffineTransform originalTransform = g2d.getTransform();
+
+        // --- Scaling Logic ---
+        layout(width, height, originalTransform.getScaleX());
+        if (wholePixels) {
+            // Every world pixel is a square of whole device pixels, so nearest-neighbour is exact
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        }
+        g2d.translate(offsetX, offsetY);
+        g2d.scale(scale, scale);
+
+        // --- World and Object Drawing ---
+        g2d.translate(-cameraX + shakeOffsetX, -cameraY + shakeOffsetY);
+        // Only the part of the world that can show on screen (the view, plus room for the shake) is drawn,
+        // and only the part of that inside the clip when just the changed areas are being repainted
+        Rectangle clip = g2d.getClipBounds();
+        int viewX = Math.max(0, cameraX - SHAKE_INTENSITY);
+        int viewY = Math.max(0, cameraY - SHAKE_INTENSITY);
+        int viewRight = Math.min(world.worldWidth, cameraX + NATIVE_SCREEN_WIDTH + SHAKE_INTENSITY);
+        int viewBottom = Math.min(world.worldHeight, cameraY + NATIVE_SCREEN_HEIGHT + SHAKE_INTENSITY);
+        if (clip != null) {
+            viewX = Math.max(viewX, clip.x);
+            viewY = Math.max(viewY, clip.y);
+            viewRight = Math.min(viewRight, clip.x + clip.width);
+            viewBottom = Math.min(viewBottom, clip.y + clip.height);
+        }
+
+        drawWorld(g2d, world, viewX, viewY, viewRight, viewBottom, clip, alpha);
+
+        // --- UI Drawing ---
+        drawActiveMessages(g2d, world);
+
+        drawHud(g2d, world);
+        drawMinimap(g2d, world);
+        g2d.setTransform(originalTransform);
+
+        // Draw the market icon in a fixed position ---
+        if (marketIcon != null) {
+            int iconSize = 48;
+            // Set the clickable bounds right before drawing
+            Rectangle bounds = new Rectangle(15, 15, iconSize, iconSize);
+            marketIconBounds = bounds;
+            sprites.draw(g2d, marketIcon, bounds.x, bounds.y, bounds.width, bounds.height);
+        }
+
+        // Draw the boss counter
+        drawBossCounter(g2d, world);
+    }
+
+    /**
+     * Draws the world alone (terrain, enemies, the hero, coins and food, without the HUD or
+     * messages) scaled by scale, with the world point (x, y) at the origin of the current user
+     * space. Only what falls inside the clip is drawn, and the snapshot should have been
+     * captured for that area. Used for exports, so nothing moves: no shake, and food at the
+     * start of its bounce.
+     */
+    public void renderArea(Graphics2D g2d, WorldSnapshot world, int x, int y, double scale) {
+        AffineTransform originalTransform = g2d.getTransform();
+        g2d.scale(scale, scale);
+        g2d.translate(-x, -y);
+        Rectangle clip = g2d.getClipBounds(); // Now in world coordinates
+        int viewX = 0, viewY = 0, viewRight = world.worldWidth, viewBottom = world.worldHeight;
+        if (clip != null) {
+            viewX = Math.max(viewX, clip.x);
+            viewY = Math.max(viewY, clip.y);
+            viewRight = Math.min(viewRight, clip.x + clip.width);
+            viewBottom = Math.min(viewBottom, clip.y + clip.height);
+        }
+        drawWorld(g2d, world, viewX, viewY, viewRight, viewBottom, clip, 0);
+        g2d.setTransform(originalTransform);
+    }
+
+    // Draws terrain and entities in world coordinates, skipping those outside the clip (if any)
+    private void drawWorld(Graphics2D g2d, WorldSnapshot world, int viewX, int viewY, int viewRight, int viewBottom,
+                           Rectangle clip, double alpha) {
+        int coinDrawSize = UNIT_SIZE / 2;
+        int offset = (UNIT_SIZE - coinDrawSize) / 2;
+
+        // Background and obstacles come pre-baked in terrain chunks
+        if (viewRight > viewX && viewBottom > viewY) {
+            terrain.draw(g2d, world, viewX, viewY, viewRight, viewBottom);
+        }
+
+        // Enemies, coins and food in the snapshot are already limited to the area it was captured for
+        for (int i = 0; i < world.enemyCount; i++) {
+            enemyBounds(world, i, bounds);
+            if (clip != null && !clip.intersects(bounds)) {
+                continue;
+            }
+            int size = world.enemySize[i];
+            // The boss is the only enemy bigger than one tile
+            sprites.draw(g2d, (size > UNIT_SIZE) ? bossImage : enemyImage, world.enemyX[i], world.enemyY[i], size, size);
+            drawEnemyUI(g2d, world, i);
+        }
+        sprites.draw(g2d, heroImage, world.heroX, world.heroY, UNIT_SIZE, UNIT_SIZE);
+
+        // Draw shield effect if active
+        if (world.shieldActive) {
+            // Create a semi-transparent blue color
+            g2d.setColor(new Color(0, 150, 255, 70));
+            g2d.fillOval(world.heroX - 10, world.heroY - 10, UNIT_SIZE + 20, UNIT_SIZE + 20); // Draw a larger circle around the hero
+        }
+
+        // --- Coin Drawing ---
+        if (!coinFrames.isEmpty()) {
+            BufferedImage coinFrame = coinFrames.get(world.coinFrame % coinFrames.size());
+            for (int i = 0; i < world.coinCountOnMap; i++) {
+                if (clip != null && !clip.intersects(world.coinX[i] + offset, world.coinY[i] + offset, coinDrawSize, coinDrawSize)) {
+                    continue;
+                }
+                // Draw the current animation frame at the coin's position
+                sprites.draw(g2d, coinFrame, world.coinX[i] + offset, world.coinY[i] + offset, coinDrawSize, coinDrawSize);
+            }
+        }
+
+        // --- Food Drawing ---
+        if (foodImage != null) {
+            int bounceOffset = bounceOffset(world, alpha);
+            for (int i = 0; i < world.foodCount; i++) {
+                if (clip != null && !clip.intersects(world.foodX[i], world.foodY[i] + bounceOffset, UNIT_SIZE, UNIT_SIZE)) {
+                    continue;
+                }
+                sprites.draw(g2d, foodImage, world.foodX[i], world.foodY[i] + bounceOffset, UNIT_SIZE, UNIT_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Scales by the largest whole number of device pixels per world pixel that fits, instead
+     * of filling the window: sharper, and the terrain and sprites never land between pixels.
+     * Windows smaller than the native screen are still scaled down to fit.
+     */
+    public void setIntegerScaling(boolean integerScaling) {
+        this.integerScaling = integerScaling;
+        layoutWidth = -1;
+    }
+
+    // The window is scaled evenly to fit, with bars on the sides that are left over
+    private void layout(int width, int height, double density) {
+        if (width == layoutWidth && height == layoutHeight && density == layoutDensity) {
+            return;
+        }
+        sprites.clear(); // The window was resized, so the scale and every sprite size changed
+        layoutWidth = width;
+        layoutHeight = height;
+        layoutDensity = density;
+
+        scale = Math.min((double) width / NATIVE_SCREEN_WIDTH, (double) height / NATIVE_SCREEN_HEIGHT);
+        int wholeScale = (int) Math.floor(scale * density);
+        wholePixels = integerScaling && wholeScale >= 1;
+        if (wholePixels) {
+            scale = wholeScale / density;
+            // Centred, on a whole device pixel
+            offsetX = Math.floor((width - NATIVE_SCREEN_WIDTH * scale) * density / 2) / density;
+            offsetY = Math.floor((height - NATIVE_SCREEN_HEIGHT * scale) * density / 2) / density;
+        } else {
+            offsetX = (width - (int) (NATIVE_SCREEN_WIDTH * scale)) / 2;
+            offsetY = (height - (int) (NATIVE_SCREEN_HEIGHT * scale)) / 2;
+        }
+    }
+
+    // Interpolate the phase between ticks so the bounce stays smooth at any refresh rate
+    private static int bounceOffset(WorldSnapshot world, double alpha) {
+        return (int) (Math.sin(world.bouncePhase + alpha * 0.1) * 4); // 4 is the bounce height in pixels
+    }
+
+    // Everything drawn for enemy i (sprite, health bar and level), in world coordinates
+    private void enemyBounds(WorldSnapshot world, int i, Rectangle out) {
+        int size = world.enemySize[i];
+        int barX = world.enemyX[i] + (size / 2) - (ENEMY_BAR_WIDTH / 2);
+        int barY = world.enemyY[i] - ENEMY_BAR_OFFSET;
+        int textX = barX - 35, textY = barY + ENEMY_BAR_HEIGHT;
+        int textRight = textX + enemyLevelText.stringWidth("Lvl ", world.enemyLevel[i]) + enemyLevelText.overhang();
+        int left = Math.min(world.enemyX[i], textX - enemyLevelText.overhang());
+        int top = Math.min(barY, textY - enemyLevelText.extentAbove());
+        int right = Math.max(Math.max(world.enemyX[i] + size, barX + ENEMY_BAR_WIDTH + 1), textRight);
+        int bottom = Math.max(world.enemyY[i] + size, textY + enemyLevelText.extentBelow());
+        out.setBounds(left, top, right - left, bottom - top);
+    }
+
+    // --- Change tracking ---
+
+    /**
+     * Lists what a frame of world at this surface size would draw into regions and works out
+     * what changed since the last frame listed, for painting only those areas. Must be called
+     * with the same snapshot and alpha the frame is then rendered with. Everything that moves
+     * with the camera (a scroll, the shake, a resize, new terrain, another game state) makes
+     * it a full repaint.
+     */
+    public void findChanges(WorldSnapshot world, int width, int height, double alpha, DirtyRegions regions) {
+        regions.begin();
+        if (world.cameraX != listedCameraX || world.cameraY != listedCameraY || width != listedWidth || height != listedHeight
+                || world.obstacleVersion != listedObstacleVersion || world.gameState != listedGameState
+                || world.shaking || listedShaking) {
+            regions.markFull();
+            listedCameraX = world.cameraX;
+            listedCameraY = world.cameraY;
+            listedWidth = width;
+            listedHeight = height;
+            listedObstacleVersion = world.obstacleVersion;
+            listedGameState = world.gameState;
+        }
+        listedShaking = world.shaking; // The frame after the shake stops still has to be put back in place
+        layout(width, height, layoutDensity); // Same as the frames rendered, whose surface gave the density
+
+        for (int i = 0; i < world.enemyCount; i++) {
+            enemyBounds(world, i, bounds);
+            // Size is in the rectangle; the rest of what the health bar and label show goes in stamps
+            addWorldItem(regions, bounds.x, bounds.y, bounds.width, bounds.height,
+                    ((long) world.enemyLevel[i] << 32) | (world.enemyHealth[i] & 0xFFFFFFFFL));
+            addWorldItem(regions, bounds.x, bounds.y, bounds.width, bounds.height, world.enemyMaxHealth[i]);
+        }
+        regions.endSection();
+
+        // The hero, with room for the shield around it
+        addWorldItem(regions, world.heroX - 10, world.heroY - 10, UNIT_SIZE + 21, UNIT_SIZE + 21, world.shieldActive ? 1 : 0);
+        regions.endSection();
+
+        int coinDrawSize = UNIT_SIZE / 2;
+        int offset = (UNIT_SIZE - coinDrawSize) / 2;
+        long coinFrame = coinFrames.isEmpty() ? 0 : world.coinFrame % coinFrames.size();
+        for (int i = 0; i < world.coinCountOnMap; i++) {
+            addWorldItem(regions, world.coinX[i] + offset, world.coinY[i] + offset, coinDrawSize, coinDrawSize, coinFrame);
+        }
+        regions.endSection();
+
+        int bounceOffset = bounceOffset(world, alpha);
+        for (int i = 0; i < world.foodCount; i++) {
+            addWorldItem(regions, world.foodX[i], world.foodY[i] + bounceOffset, UNIT_SIZE, UNIT_SIZE, 0);
+        }
+        regions.endSection();
+
+        // Messages, laid out as drawActiveMessages does; a line's text goes in its stamp
+        int linesUp = 0;
+        for (int i = world.messageCount - 1; i >= 0; i--) {
+            char[] message = world.messageText[i];
+            int length = world.messageLength[i];
+            int messageWidth = messageText.stringWidth(message, length);
+            int messageX = world.heroX + (UNIT_SIZE / 2) - (messageWidth / 2);
+            int messageY = world.heroY - MESSAGE_OFFSET - (linesUp * MESSAGE_LINE_HEIGHT);
+            int top = messageY - messageText.extentAbove();
+            int hash = 0;
+            for (int c = 0; c < length; c++) {
+                hash = 31 * hash + message[c];
+            }
+            addWorldItem(regions, messageX - messageText.overhang(), top, messageWidth + 2 * messageText.overhang(),
+                    messageY + messageText.extentBelow() - top, ((long) hash << 32) | length);
+            linesUp++;
+        }
+        regions.endSection();
+
+        // The HUD stays put on screen: one item per value it shows, all covering its layer
+        int hudX = world.cameraX + 15, hudY = world.cameraY + NATIVE_SCREEN_HEIGHT - 40 - HUD_TOP;
+        addWorldItem(regions, hudX, hudY, hudLayer.width(), hudLayer.height(), world.heroLevel);
+        addWorldItem(regions, hudX, hudY, hudLayer.width(), hudLayer.height(), world.heroHealth);
+        addWorldItem(regions, hudX, hudY, hudLayer.width(), hudLayer.height(), world.heroMaxHealth);
+        addWorldItem(regions, hudX, hudY, hudLayer.width(), hudLayer.height(), world.heroXP);
+        addWorldItem(regions, hudX, hudY, hudLayer.width(), hudLayer.height(), world.xpToNextLevel);
+        addWorldItem(regions, hudX, hudY, hudLayer.width(), hudLayer.height(), world.coinCount);
+        regions.endSection();
+
+        // The minimap: its cells, and the hero's cell on it
+        if (world.minimapWidth > 0) {
+            int cellPixels = minimapCellPixels(world);
+            int mapWidth = world.minimapWidth * cellPixels + 2, mapHeight = world.minimapHeight * cellPixels + 2;
+            int mapX = world.cameraX + NATIVE_SCREEN_WIDTH - MINIMAP_MARGIN - mapWidth;
+            int mapY = world.cameraY + NATIVE_SCREEN_HEIGHT - MINIMAP_MARGIN - mapHeight;
+            int tileSize = UNIT_SIZE * world.minimapTilesPerCell;
+            addWorldItem(regions, mapX, mapY, mapWidth, mapHeight, world.minimapVersion);
+            addWorldItem(regions, mapX, mapY, mapWidth, mapHeight, TileMap.key(world.heroX / tileSize, world.heroY / tileSize));
+        }
+        regions.endSection();
+
+        // The boss counter is drawn unscaled, straight in component coordinates
+        boolean counterShown = world.level20EnemiesDefeated > 0 && world.gameState == World.GameState.NORMAL;
+        regions.add(NATIVE_SCREEN_WIDTH - BOSS_COUNTER_WIDTH, 0, BOSS_COUNTER_WIDTH, bossCounterLayer.height(),
+                counterShown ? world.level20EnemiesDefeated : -1);
+        regions.endSection();
+
+        regions.finish(width, height);
+    }
+
+    // Adds an item given in world coordinates, as the pixels it covers in the component.
+    // The extra pixel on each side covers rounding and the bilinear edges of scaled sprites.
+    private void addWorldItem(DirtyRegions regions, int x, int y, int width, int height, long stamp) {
+        int left = (int) Math.floor(offsetX + (x - listedCameraX) * scale) - 1;
+        int top = (int) Math.floor(offsetY + (y - listedCameraY) * scale) - 1;
+        int right = (int) Math.ceil(offsetX + (x + width - listedCameraX) * scale) + 1;
+        int bottom = (int) Math.ceil(offsetY + (y + height - listedCameraY) * scale) + 1;
+        regions.add(left, top, right - left, bottom - top, stamp);
+    }
+
+    private void drawEnemyUI(Graphics2D g2d, WorldSnapshot world, int i) {
+        final int barWidth = ENEMY_BAR_WIDTH, barHeight = ENEMY_BAR_HEIGHT;
+        int barX = world.enemyX[i] + (world.enemySize[i] / 2) - (barWidth / 2);
+        int barY = world.enemyY[i] - ENEMY_BAR_OFFSET;
+
+        enemyLevelText.drawString(g2d, "Lvl ", world.enemyLevel[i], barX - 35, barY + barHeight);
+
+        g2d.setColor(Color.DARK_GRAY);
+        g2d.fillRect(barX, barY, barWidth, barHeight);
+
+        double healthPercentage = (double) world.enemyHealth[i] / world.enemyMaxHealth[i];
+        g2d.setColor(Color.RED);
+
+        g2d.fillRect(barX, barY, (int)(barWidth * healthPercentage), barHeight);
+
+        g2d.setColor(Color.WHITE);
+        g2d.drawRect(barX, barY, barWidth, barHeight);
+    }
+
+    // The HUD only changes with the stats it shows, so it is kept in a layer and drawn with one blit
+    private void drawHud(Graphics2D g2d, WorldSnapshot world) {
+        hudLayer.value(0, world.heroLevel);
+        hudLayer.value(1, world.heroHealth);
+        hudLayer.value(2, world.heroMaxHealth);
+        hudLayer.value(3, world.heroXP);
+        hudLayer.value(4, world.xpToNextLevel);
+        hudLayer.value(5, world.coinCount);
+        // Base position near the bottom of the screen, less the room above it for text
+        hudLayer.draw(g2d, world.cameraX + 15, world.cameraY + NATIVE_SCREEN_HEIGHT - 40 - HUD_TOP, world);
+    }
+
+    // How many screen pixels each minimap cell gets: as many as fit in the largest map
+    private static int minimapCellPixels(WorldSnapshot world) {
+        return Math.max(1, Math.min(Minimap.MAX_COLUMNS / world.minimapWidth, Minimap.MAX_ROWS / world.minimapHeight));
+    }
+
+    // The minimap, framed in the bottom-right corner, with the hero and the view marked on it
+    private void drawMinimap(Graphics2D g2d, WorldSnapshot world) {
+        if (world.minimapWidth <= 0) {
+            return;
+        }
+        if (minimapImage == null || minimapImage.getWidth() != world.minimapWidth || minimapImage.getHeight() != world.minimapHeight) {
+            minimapImage = new BufferedImage(world.minimapWidth, world.minimapHeight, BufferedImage.TYPE_INT_RGB);
+            minimapImageVersion = -1;
+        }
+        if (minimapImageVersion != world.minimapVersion) {
+            int[] data = ((DataBufferInt) minimapImage.getRaster().getDataBuffer()).getData();
+            System.arraycopy(world.minimapPixels, 0, data, 0, data.length);
+            minimapImageVersion = world.minimapVersion;
+        }
+
+        // The cells, with a one pixel frame around them
+        int cellPixels = minimapCellPixels(world);
+        int layerWidth = world.minimapWidth * cellPixels + 2, layerHeight = world.minimapHeight * cellPixels + 2;
+        if (minimapLayer == null || minimapLayer.width() != layerWidth || minimapLayer.height() != layerHeight) {
+            minimapLayer = new CachedLayer(layerWidth, layerHeight, 6, this::paintMinimap);
+        }
+        int tileSize = UNIT_SIZE * world.minimapTilesPerCell;
+        minimapLayer.value(0, (int) world.minimapVersion);
+        minimapLayer.value(1, (int) (world.minimapVersion >>> 32));
+        minimapLayer.value(2, world.heroX / tileSize);
+        minimapLayer.value(3, world.heroY / tileSize);
+        minimapLayer.value(4, world.cameraX);
+        minimapLayer.value(5, world.cameraY);
+        minimapLayer.draw(g2d, world.cameraX + NATIVE_SCREEN_WIDTH - MINIMAP_MARGIN - layerWidth,
+                world.cameraY + NATIVE_SCREEN_HEIGHT - MINIMAP_MARGIN - layerHeight, world);
+    }
+
+    // Paints the minimap into its layer: frame, cells, the view's outline and the hero's cell
+    private void paintMinimap(Graphics2D g2d, WorldSnapshot world) {
+        int cellPixels = minimapCellPixels(world);
+        int mapWidth = world.minimapWidth * cellPixels, mapHeight = world.minimapHeight * cellPixels;
+        g2d.setColor(Color.BLACK);
+        g2d.drawRect(0, 0, mapWidth + 1, mapHeight + 1);
+        g2d.drawImage(minimapImage, 1, 1, mapWidth, mapHeight, null);
+
+        // World pixels to map pixels
+        double mapScale = (double) cellPixels / (UNIT_SIZE * world.minimapTilesPerCell);
+        g2d.setColor(Color.WHITE);
+        g2d.drawRect(1 + (int) (world.cameraX * mapScale), 1 + (int) (world.cameraY * mapScale),
+                (int) (NATIVE_SCREEN_WIDTH * mapScale), (int) (NATIVE_SCREEN_HEIGHT * mapScale));
+        int tileSize = UNIT_SIZE * world.minimapTilesPerCell;
+        int heroMark = Math.max(2, cellPixels);
+        g2d.fillRect(1 + (world.heroX / tileSize) * cellPixels, 1 + (world.heroY / tileSize) * cellPixels, heroMark, heroMark);
+    }
+
+    // Paints the HUD into its layer, with (0, HUD_TOP) as the top-left of the bars
+    private void paintHud(Graphics2D g2d, WorldSnapshot world) {
+        // --- Define base positions and dimensions ---
+        int hudX = 0;
+        int hudY = HUD_TOP;
+        int barWidth = 120;
+        int hpBarHeight = 14;
+        int xpBarHeight = 7;
+
+        // --- 1. Draw Hero's Level (with a shadow for better readability) ---
+        heroLevelText.drawString(g2d, "Lvl: ", world.heroLevel, hudX, hudY + 18);
+
+        // --- 2. Draw Health and XP Bars ---
+        int barX = hudX + 65;
+        // Health Bar
+        double hpPercentage = (double) world.heroHealth / world.heroMaxHealth;
+        g2d.setColor(Color.DARK_GRAY);
+        g2d.fillRect(barX, hudY, barWidth, hpBarHeight);
+        g2d.setColor(Color.GREEN);
+        g2d.fillRect(barX, hudY, (int)(barWidth * hpPercentage), hpBarHeight);
+        g2d.setColor(Color.WHITE);
+        g2d.drawRect(barX, hudY, barWidth, hpBarHeight);
+
+        // XP Bar (positioned below the HP bar)
+        int xpBarY = hudY + hpBarHeight + 2;
+        double xpPercentage = (double) world.heroXP / world.xpToNextLevel;
+        g2d.setColor(Color.DARK_GRAY);
+        g2d.fillRect(barX, xpBarY, barWidth, xpBarHeight);
+        g2d.setColor(Color.CYAN);
+        g2d.fillRect(barX, xpBarY, (int)(barWidth * xpPercentage), xpBarHeight);
+        g2d.setColor(Color.WHITE);
+        g2d.drawRect(barX, xpBarY, barWidth, xpBarHeight);
+
+        // --- 3. Draw Coin Counter ---
+        int coinX = barX + barWidth + 20; // Position to the right of the bars
+        if (!coinFrames.isEmpty()) {
+            // Use the first frame of the coin frame for the icon
+            sprites.draw(g2d, coinFrames.get(0), coinX, hudY + 2, UNIT_SIZE / 2, UNIT_SIZE / 2);
+            coinCountText.drawString(g2d, "x ", world.coinCount, coinX + 29, hudY + 20);
+        }
+    }
+
+    private void drawActiveMessages(Graphics2D g2d, WorldSnapshot world) {
+        final int baseYOffset = MESSAGE_OFFSET, lineHeight = MESSAGE_LINE_HEIGHT;
+        int linesUp = 0;
+
+        for (int i = world.messageCount - 1; i >= 0; i--) {
+            char[] message = world.messageText[i];
+            int length = world.messageLength[i];
+            int messageWidth = messageText.stringWidth(message, length);
+            int messageX = world.heroX + (UNIT_SIZE / 2) - (messageWidth / 2);
+            int messageY = world.heroY - baseYOffset - (linesUp * lineHeight);
+
+            messageText.drawString(g2d, message, length, messageX, messageY); // Shadow included
+
+            linesUp++;
+        }
+    }
+
+    private void drawBossCounter(Graphics2D g2d, WorldSnapshot world) {
+        // Only draw the counter if at least one level 20 enemy has been defeated
+        // and the game is in the NORMAL state.
+        if (world.level20EnemiesDefeated > 0 && world.gameState == World.GameState.NORMAL) {
+            bossCounterLayer.value(0, world.level20EnemiesDefeated);
+            bossCounterLayer.draw(g2d, NATIVE_SCREEN_WIDTH - BOSS_COUNTER_WIDTH, 0, world);
+        }
+    }
+
+    // Paints "Enemies Defeated: N/4" into its layer, right-aligned 20 pixels from the layer's right edge
+    private void paintBossCounter(Graphics2D g2d, WorldSnapshot world) {
+        int countWidth = bossCounterText.stringWidth("Enemies Defeated: ", world.level20EnemiesDefeated);
+        int textWidth = countWidth + bossCounterText.stringWidth("/4");
+        int x = BOSS_COUNTER_WIDTH - textWidth - 20;
+        int y = 35;
+
+        // The shadow for readability is part of the text style
+        bossCounterText.drawString(g2d, "Enemies Defeated: ", world.level20EnemiesDefeated, x, y);
+        bossCounterText.drawString(g2d, "/4", x + countWidth, y);
+    }
+}
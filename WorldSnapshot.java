@@ -0,0 +1,119 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything the renderer needs from one tick of the World, copied into flat arrays.
+ * The game thread fills a snapshot at the end of each tick and publishes it through an
+ * Exchange; the rendering thread only ever reads published snapshots, so it never sees
+ * the World's lists while they are being changed.
+ *
+ * Snapshots are reused rather than allocated per tick. Arrays only grow when an entity
+ * count goes above anything seen before.
+ */
+class WorldSnapshot {
+    // World and camera
+    int worldWidth, worldHeight;
+    int cameraX, cameraY;
+    long time; // Simulated milliseconds when this snapshot was taken
+
+    // Hero
+    int heroX, heroY;
+    int heroLevel, heroXP, xpToNextLevel;
+    int heroHealth, heroMaxHealth;
+    int coinCount;
+    boolean shieldActive;
+
+    // Game state
+    World.GameState gameState = World.GameState.NORMAL;
+    int level20EnemiesDefeated;
+    boolean shaking;
+
+    // Animation
+    double bouncePhase;
+    int coinFrame;
+
+    // Obstacle tiles for the whole world. These grids are never changed once published:
+    // the World hands out a new pair (with a new version) whenever obstacles change, so
+    // snapshots can share them.
+    long obstacleVersion = -1;
+    OccupancyGrid obstacleTiles; // Set where a tile holds a rock or a stump
+    OccupancyGrid stumpTiles;    // Set where that obstacle is a stump
+    int rockCount, stumpCount; // In the loaded part of the world
+    int loadedChunks;
+    long seed; // Of the current game
+
+    // Overview of the whole world: minimapWidth x minimapHeight ARGB cells, each covering
+    // minimapTilesPerCell tiles each way. Only copied when the World's minimap changed.
+    int minimapWidth, minimapHeight, minimapTilesPerCell;
+    int[] minimapPixels = new int[0];
+    long minimapVersion = -1;
+
+    // Everything below only covers entities near the camera (see World.capture);
+    // the totals count the whole world
+    int enemyTotal, coinTotal, foodTotal;
+
+    int enemyCount;
+    int[] enemyX = new int[0], enemyY = new int[0], enemySize = new int[0];
+    int[] enemyLevel = new int[0], enemyHealth = new int[0], enemyMaxHealth = new int[0];
+
+    int coinCountOnMap;
+    int[] coinX = new int[0], coinY = new int[0];
+
+    int foodCount;
+    int[] foodX = new int[0], foodY = new int[0];
+
+    // Messages, oldest first: the text of message i is the first messageLength[i] chars of messageText[i]
+    int messageCount;
+    char[][] messageText = new char[0][];
+    int[] messageLength = new int[0];
+
+    // Grows an array to hold at least size entries (contents are not kept)
+    static int[] ensure(int[] array, int size) {
+        return (array.length >= size) ? array : new int[Math.max(size, array.length * 2)];
+    }
+
+    // Makes room for at least count messages, keeping the buffers already there
+    void ensureMessages(int count) {
+        if (messageText.length < count) {
+            int oldLength = messageText.length;
+            messageText = Arrays.copyOf(messageText, count);
+            messageLength = new int[count];
+            for (int i = oldLength; i < count; i++) {
+                messageText[i] = new char[MessageRing.MAX_LENGTH];
+            }
+        }
+    }
+
+    /**
+     * Lock-free triple buffer for handing snapshots from one writer thread to one reader thread.
+     * The writer fills the back buffer and swaps it into the middle; the reader swaps the middle
+     * out whenever it holds something newer. Neither side ever waits for the other.
+     */
+    static class Exchange {
+        private static final int INDEX_MASK = 3;
+        private static final int FRESH = 4; // Set when the middle buffer holds a snapshot the reader hasn't taken yet
+
+        private final WorldSnapshot[] buffers = {new WorldSnapshot(), new WorldSnapshot(), new WorldSnapshot()};
+        private final AtomicInteger middle = new AtomicInteger(1);
+        private int back = 0;  // Only touched by the writer
+        private int front = 2; // Only touched by the reader
+
+        // The snapshot the writer may fill now
+        WorldSnapshot backBuffer() {
+            return buffers[back];
+        }
+
+        // Makes the back buffer the latest snapshot and hands the writer a new back buffer
+        void publish() {
+            back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+        }
+
+        // The newest published snapshot. It stays valid until the reader calls this again.
+        WorldSnapshot latest() {
+            if ((middle.get() & FRESH) != 0) {
+                front = middle.getAndSet(front) & INDEX_MASK;
+            }
+            return buffers[front];
+        }
+    }
+}
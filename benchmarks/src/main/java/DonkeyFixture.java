@@ -0,0 +1,111 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import benchmarks.GameFixture;
+
+/**
+ * Lives in the unnamed package so it can reach the game's package-private classes.
+ * See GameFixture for why this indirection exists.
+ */
+public class DonkeyFixture implements GameFixture {
+    private final World world;
+    private final DonkeyGamePanel panel;
+    private final Graphics2D frameGraphics;
+
+    public DonkeyFixture(int screens, int obstaclePercent, int entities, long seed) {
+        World.Config config = new World.Config();
+        config.worldWidth = World.NATIVE_SCREEN_WIDTH * screens;
+        config.worldHeight = World.NATIVE_SCREEN_HEIGHT * screens;
+        int tiles = (config.worldWidth / World.UNIT_SIZE) * (config.worldHeight / World.UNIT_SIZE);
+        int obstacles = tiles * obstaclePercent / 100;
+        // Keep the game's usual mix of rocks and stumps
+        config.numRocks = obstacles * World.NUM_ROCKS / (World.NUM_ROCKS + World.NUM_STUMPS);
+        config.numStumps = obstacles - config.numRocks;
+        config.numEnemies = entities;
+        config.numCoins = entities;
+        config.numFoods = entities;
+
+        config.seed = seed;
+        world = new World(config);
+        world.startGame();
+
+        panel = new DonkeyGamePanel(null, world);
+        panel.setSize(World.NATIVE_SCREEN_WIDTH, World.NATIVE_SCREEN_HEIGHT);
+        panel.publishSnapshot(); // No game loop here, so hand the renderer a snapshot ourselves
+        BufferedImage frame = new BufferedImage(World.NATIVE_SCREEN_WIDTH, World.NATIVE_SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        frameGraphics = frame.createGraphics();
+    }
+
+    @Override
+    public int tileColumns() {
+        return world.worldWidth / World.UNIT_SIZE;
+    }
+
+    @Override
+    public int tileRows() {
+        return world.worldHeight / World.UNIT_SIZE;
+    }
+
+    @Override
+    public int unitSize() {
+        return World.UNIT_SIZE;
+    }
+
+    @Override
+    public boolean isObstacle(int x, int y) {
+        return world.isObstacle(x, y);
+    }
+
+    @Override
+    public boolean isAreaOccupied(int x, int y, int size) {
+        return world.isAreaOccupied(x, y, size);
+    }
+
+    @Override
+    public void checkCollisionsAt(int x, int y) {
+        world.heroX = x;
+        world.heroY = y;
+        world.checkCollisions();
+        world.activeMessages.clear(); // Nothing ticks here, so don't let messages pile up
+    }
+
+    @Override
+    public void teleportEnemyAnywhere(int index) {
+        world.enemies.get(index % world.enemies.size()).teleportAnywhere();
+    }
+
+    @Override
+    public void teleportEnemyNearby(int index) {
+        world.enemies.get(index % world.enemies.size()).teleportNearby();
+    }
+
+    @Override
+    public void teleportCoin(int index) {
+        world.teleportCoin(world.coins.get(index % world.coins.size()));
+    }
+
+    @Override
+    public void regenerateObstacles() {
+        world.clearObstacles();
+        world.generateObstacles();
+    }
+
+    @Override
+    public void paintFrame() {
+        panel.paintComponent(frameGraphics);
+    }
+
+    @Override
+    public byte[] save() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        world.toSaveData().writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public void load(byte[] saveData) throws Exception {
+        world.applySaveData(GameStateData.readFrom(new ByteArrayInputStream(saveData)));
+    }
+}
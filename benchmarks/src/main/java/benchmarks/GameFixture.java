@@ -0,0 +1,53 @@
+package benchmarks;
+
+/**
+ * The game classes live in the unnamed package, which JMH benchmarks can't import from.
+ * This interface is implemented by DonkeyFixture (in the unnamed package next to the game)
+ * and looked up once per trial, so the measured calls are plain interface calls.
+ */
+public interface GameFixture {
+
+    int tileColumns();
+
+    int tileRows();
+
+    int unitSize();
+
+    boolean isObstacle(int x, int y);
+
+    boolean isAreaOccupied(int x, int y, int size);
+
+    // Puts the hero at (x, y) and runs one collision check
+    void checkCollisionsAt(int x, int y);
+
+    void teleportEnemyAnywhere(int index);
+
+    void teleportEnemyNearby(int index);
+
+    void teleportCoin(int index);
+
+    // Clears and regenerates all rocks and stumps
+    void regenerateObstacles();
+
+    // Paints one frame of DonkeyGamePanel into an offscreen image
+    void paintFrame();
+
+    byte[] save() throws Exception;
+
+    void load(byte[] saveData) throws Exception;
+
+    /**
+     * Builds a world of the given size and contents.
+     * screens is the world size in screens per side (the real game is 5), obstaclePercent is the
+     * share of tiles covered by rocks and stumps, and entities is the number of enemies, coins and foods.
+     */
+    static GameFixture create(int screens, int obstaclePercent, int entities) {
+        try {
+            return (GameFixture) Class.forName("DonkeyFixture")
+                    .getConstructor(int.class, int.class, int.class, long.class)
+                    .newInstance(screens, obstaclePercent, entities, 42L);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create the game fixture", e);
+        }
+    }
+}
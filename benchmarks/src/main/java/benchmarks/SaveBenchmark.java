@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding a save in memory, without the file system or the file chooser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SaveBenchmark {
+
+    @State(Scope.Thread)
+    public static class SavedWorld {
+        public byte[] saveData;
+
+        @Setup(Level.Trial)
+        public void setUp(WorldState state) throws Exception {
+            saveData = state.fixture.save();
+        }
+    }
+
+    @Benchmark
+    public byte[] saveGame(WorldState state) throws Exception {
+        return state.fixture.save();
+    }
+
+    @Benchmark
+    public void loadGame(WorldState state, SavedWorld saved) throws Exception {
+        state.fixture.load(saved.saveData);
+    }
+}
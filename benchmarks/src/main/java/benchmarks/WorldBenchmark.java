@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Game rule hot paths: obstacle lookups, collisions and the various spawn/teleport loops.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class WorldBenchmark {
+
+    @Benchmark
+    public boolean isObstacle(WorldState state) {
+        int i = state.nextProbe();
+        return state.fixture.isObstacle(state.probeX[i], state.probeY[i]);
+    }
+
+    // The 3x3 area the boss needs
+    @Benchmark
+    public boolean isAreaOccupied(WorldState state) {
+        int i = state.nextProbe();
+        return state.fixture.isAreaOccupied(state.probeX[i], state.probeY[i], state.fixture.unitSize() * 3);
+    }
+
+    @Benchmark
+    public void checkCollisions(WorldState state) {
+        int i = state.nextProbe();
+        state.fixture.checkCollisionsAt(state.probeX[i], state.probeY[i]);
+    }
+
+    @Benchmark
+    public void teleportAnywhere(WorldState state) {
+        state.fixture.teleportEnemyAnywhere(state.nextProbe());
+    }
+
+    @Benchmark
+    public void teleportNearby(WorldState state) {
+        state.fixture.teleportEnemyNearby(state.nextProbe());
+    }
+
+    @Benchmark
+    public void teleportCoin(WorldState state) {
+        state.fixture.teleportCoin(state.nextProbe());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void generateObstacles(WorldState state) {
+        state.fixture.regenerateObstacles();
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A world built once per trial, plus a fixed set of random tile positions to probe it with.
+ * The parameters cover the normal game (5 screens, about 3% obstacles, a handful of entities)
+ * up to worlds much bigger and busier than anything the game makes today.
+ */
+@State(Scope.Thread)
+public class WorldState {
+    private static final int PROBES = 1024; // Power of two so the index can wrap with a mask
+
+    // World size in screens per side
+    @Param({"1", "5", "20"})
+    public int screens;
+
+    // Share of tiles covered by rocks and stumps
+    @Param({"3", "15"})
+    public int obstaclePercent;
+
+    // Number of enemies, and also of coins and of foods
+    @Param({"4", "400"})
+    public int entities;
+
+    public GameFixture fixture;
+    public int[] probeX;
+    public int[] probeY;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = GameFixture.create(screens, obstaclePercent, entities);
+
+        Random random = new Random(7);
+        probeX = new int[PROBES];
+        probeY = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probeX[i] = random.nextInt(fixture.tileColumns()) * fixture.unitSize();
+            probeY[i] = random.nextInt(fixture.tileRows()) * fixture.unitSize();
+        }
+    }
+
+    // Index of the next probe position
+    public int nextProbe() {
+        return next++ & (PROBES - 1);
+    }
+}